@@ -0,0 +1,841 @@
+import arithmetic.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static preconditions.Preconditions.checkState;
+
+/*
+ * How the arithmetic coders turn DC and AC values into symbols. The encoder and the decoder each hold a model
+ * and feed it the same values in the same order, so both sides adapt alike. Values arrive the way a Huffman
+ * scan has them: a DC difference per block, then (zero run, value) pairs with (0, 0) for EOB and (15, 0) for ZRL.
+ */
+abstract class ArithModel {
+    static final int LITERAL = 0;
+    static final int TOKEN = 1;
+    static final int CONTEXT = 2;
+    static final int BINARY = 3;
+
+    static ArithModel create(int id) {
+        switch (id) {
+            case LITERAL:
+                return new LiteralModel();
+            case TOKEN:
+                return new TokenModel();
+            case CONTEXT:
+                return new ContextModel();
+            case BINARY:
+                return new BinaryModel();
+            default:
+                throw new IllegalStateException(String.format("Unknown arithmetic model %d", id));
+        }
+    }
+
+    static int parse(String name) {
+        switch (name) {
+            case "literal":
+                return LITERAL;
+            case "token":
+                return TOKEN;
+            case "context":
+                return CONTEXT;
+            case "binary":
+                return BINARY;
+            default:
+                throw new IllegalArgumentException(String.format("Unknown arithmetic model %s", name));
+        }
+    }
+
+    abstract int id();
+
+    /*
+     * Starts a scan, or one of its restart intervals, with the coder chosen by JpegArith (ARITHMETIC, RANGE, ...).
+     * The model keeps what it has learnt from earlier intervals.
+     */
+    abstract void beginWrite(OutputStream scan, int coder);
+
+    abstract void writeDc(boolean luminance, int value) throws IOException;
+
+    abstract void writeAc(boolean luminance, int zeros, int value) throws IOException;
+
+    /*
+     * Marks the end of the scan, after which readDc throws NoSuchElementException, and flushes the coder.
+     */
+    abstract void endWrite() throws IOException;
+
+    abstract void beginRead(InputStream scan, int coder) throws IOException;
+
+    abstract int readDc(boolean luminance) throws IOException;
+
+    abstract int readAc(boolean luminance, int[] zeroHolder) throws IOException;
+
+    /*
+     * Prints what the values written so far cost, per context for the models that have them.
+     */
+    void printCosts() {
+    }
+
+    /*
+     * Makes the model halve its counts whenever a table's total passes the limit, see DecayingFrequencyTable.
+     * Both sides have to do so before coding anything. Models without frequency tables ignore it.
+     */
+    void setRescaleLimit(int limit) {
+    }
+
+    /*
+     * What the model has learnt so far, one array per table in a fixed order: symbol frequencies, or the
+     * probabilities of the binary model.
+     */
+    abstract int[][] tables();
+
+    /*
+     * Starts from tables made by prior() instead of from scratch. Both sides have to do so before coding anything.
+     */
+    abstract void startFrom(int[][] tables);
+
+    /*
+     * Merges the tables the model was left with after each training image into a prior, see Prior.
+     */
+    abstract int[][] prior(List<int[][]> trained);
+
+    static int[] frequencies(FrequencyTable freqs) {
+        int[] frequencies = new int[freqs.getSymbolLimit()];
+        for (int i = 0; i < frequencies.length; i++)
+            frequencies[i] = freqs.get(i);
+        return frequencies;
+    }
+}
+
+/*
+ * Models that turn values into symbols of frequency tables, which any SymbolEncoder can code.
+ */
+abstract class SymbolModel extends ArithModel {
+    // where tables are halved unless setRescaleLimit says otherwise, below what every coder accepts
+    static final int DEFAULT_LIMIT = 1 << 29;
+
+    protected SymbolEncoder encoder;
+    protected SymbolDecoder decoder;
+    private BitOutputStream output;
+    private int limit = DEFAULT_LIMIT;
+
+    /*
+     * A table starting at the given frequencies, for the model to adapt.
+     */
+    protected FrequencyTable table(int[] frequencies) {
+        return new DecayingFrequencyTable(new FenwickFrequencyTable(frequencies), this.limit);
+    }
+
+    @Override
+    void setRescaleLimit(int limit) {
+        this.limit = limit;
+        this.startFrom(this.tables());
+    }
+
+    @Override
+    void beginWrite(OutputStream scan, int coder) {
+        this.output = null;
+        switch (coder) {
+            case JpegArith.RANGE:
+                this.encoder = new RangeEncoder(scan);
+                break;
+            case JpegArith.RANS:
+                this.encoder = new RansEncoder(scan);
+                break;
+            default:
+                this.output = new BitOutputStream(scan);
+                this.encoder = new ArithmeticEncoder(32, this.output);
+        }
+    }
+
+    @Override
+    void endWrite() throws IOException {
+        this.writeEnd();
+        this.encoder.finish();
+        if (this.output != null)
+            this.output.close();
+    }
+
+    abstract void writeEnd() throws IOException;
+
+    @Override
+    void beginRead(InputStream scan, int coder) throws IOException {
+        switch (coder) {
+            case JpegArith.RANGE:
+                this.decoder = new RangeDecoder(scan);
+                break;
+            case JpegArith.RANS:
+                this.decoder = new RansDecoder(scan);
+                break;
+            default:
+                this.decoder = new ArithmeticDecoder(32, new BitInputStream(scan));
+        }
+    }
+
+    /*
+     * What training added to each table, scaled to PRIOR_WEIGHT in all, on top of the flat start: enough to
+     * skip most of the learning, little enough for the image's own statistics to take over.
+     */
+    @Override
+    int[][] prior(List<int[][]> trained) {
+        int[][] flat = ArithModel.create(this.id()).tables();
+        int[][] prior = new int[flat.length][];
+        for (int t = 0; t < flat.length; t++) {
+            long[] counts = new long[flat[t].length];
+            long total = 0;
+            for (int[][] tables : trained) {
+                for (int s = 0; s < counts.length; s++) {
+                    counts[s] += tables[t][s] - flat[t][s];
+                    total += tables[t][s] - flat[t][s];
+                }
+            }
+            prior[t] = flat[t].clone();
+            if (total > 0)
+                for (int s = 0; s < counts.length; s++)
+                    prior[t][s] += (int) (counts[s] * Prior.WEIGHT / total);
+        }
+        return prior;
+    }
+}
+
+/*
+ * The original model: every (zero run, sign, magnitude) is a symbol of its own in one adaptive table of
+ * 32769 symbols, shared by all components, with the last one for EOF.
+ */
+class LiteralModel extends SymbolModel {
+    private FrequencyTable freqs = this.table(frequencies(new FlatFrequencyTable(32769)));
+
+    @Override
+    int id() {
+        return LITERAL;
+    }
+
+    @Override
+    void writeDc(boolean luminance, int value) throws IOException {
+        this.write((Math.abs(value) & 0x7ff) | (value < 0 ? 0x800 : 0));
+    }
+
+    @Override
+    void writeAc(boolean luminance, int zeros, int value) throws IOException {
+        this.write((zeros << 11) | (Math.abs(value) & 0x3ff) | (value < 0 ? 0x400 : 0));
+    }
+
+    @Override
+    void writeEnd() throws IOException {
+        this.encoder.write(this.freqs, 32768);
+    }
+
+    private void write(int sym) throws IOException {
+        this.encoder.write(this.freqs, sym);
+        this.freqs.increment(sym);
+    }
+
+    @Override
+    int readDc(boolean luminance) throws IOException {
+        int sym = this.read();
+        return ((sym & 0x800) != 0) ? -(sym & 0x7ff) : (sym & 0x7ff);
+    }
+
+    @Override
+    int readAc(boolean luminance, int[] zeroHolder) throws IOException {
+        int sym = this.read();
+        zeroHolder[0] = (sym >> 11) & 0xf;
+        return ((sym & 0x400) != 0) ? -(sym & 0x3ff) : (sym & 0x3ff);
+    }
+
+    private int read() throws IOException {
+        int sym = this.decoder.read(this.freqs);
+        if (sym == 32768) // EOF
+            throw new NoSuchElementException();
+        this.freqs.increment(sym);
+        return sym;
+    }
+
+    @Override
+    int[][] tables() {
+        return new int[][]{frequencies(this.freqs)};
+    }
+
+    @Override
+    void startFrom(int[][] tables) {
+        checkState(tables.length == 1 && tables[0].length == 32769, "Prior does not fit the literal model");
+        this.freqs = this.table(tables[0]);
+    }
+}
+
+/*
+ * Codes a small token per value, the same (zero run, category) pair a Huffman scan uses, with adaptive
+ * tables per DC/AC and luminance/chrominance. What the category leaves open is sent as bits: the sign and
+ * the bits below the leading one flat, except the one right below it, which is skewed enough to adapt.
+ * Subclasses pick the tables through the context methods; the encoder adds up what each context costs.
+ */
+class TokenModel extends SymbolModel {
+    private static final int DC_EOF = 12;  // DC categories are 0-11
+    // how much a symbol's frequency grows each time it is seen; more than 1 to get over the flat start quickly
+    private static final int INCREMENT = 16;
+    private static final FrequencyTable[] FLAT = new FrequencyTable[11];
+
+    static {
+        for (int k = 1; k < FLAT.length; k++)
+            FLAT[k] = new FlatFrequencyTable(1 << k);
+    }
+
+    private final FrequencyTable[] dcTokens;
+    private final FrequencyTable[] acTokens;
+    // the bit below the leading one, indexed by [bit context][dc ? 0 : 1][category]
+    private final FrequencyTable[][][] leadingBits;
+    // bits spent and values coded per context, DC contexts first, then AC ones
+    private final double[] costs;
+    private final int[] values;
+
+    TokenModel() {
+        this(2, 2, 2);
+    }
+
+    protected TokenModel(int dcContexts, int acContexts, int bitContexts) {
+        this.dcTokens = new FrequencyTable[dcContexts];
+        for (int c = 0; c < dcContexts; c++)
+            this.dcTokens[c] = this.table(frequencies(new FlatFrequencyTable(DC_EOF + 1)));
+        this.acTokens = new FrequencyTable[acContexts];
+        for (int c = 0; c < acContexts; c++)
+            this.acTokens[c] = this.table(acFrequencies());
+        this.leadingBits = new FrequencyTable[bitContexts][2][12];
+        for (FrequencyTable[][] byType : this.leadingBits)
+            for (FrequencyTable[] byCategory : byType)
+                for (int c = 0; c < byCategory.length; c++)
+                    byCategory[c] = this.table(new int[]{1, 1});
+        this.costs = new double[dcContexts + acContexts];
+        this.values = new int[dcContexts + acContexts];
+    }
+
+    private static int[] acFrequencies() {
+        int[] frequencies = new int[256];
+        for (int token = 0; token < 256; token++) {
+            int category = token & 0x0f;
+            if (category >= 1 && category <= 10 || token == 0x00 || token == 0xf0)  // values, EOB and ZRL
+                frequencies[token] = 1;
+        }
+        return frequencies;
+    }
+
+    @Override
+    int id() {
+        return TOKEN;
+    }
+
+    /*
+     * The table for the next DC value (or the end of the scan, which takes its place).
+     */
+    protected int dcContext(boolean luminance) {
+        return luminance ? 0 : 1;
+    }
+
+    /*
+     * The table for the next AC value of the block.
+     */
+    protected int acContext(boolean luminance) {
+        return luminance ? 0 : 1;
+    }
+
+    /*
+     * The tables for the bit below the leading one of the next value.
+     */
+    protected int bitContext(boolean luminance) {
+        return luminance ? 0 : 1;
+    }
+
+    /*
+     * Called with each value once it is coded, on both sides, so that subclasses can track the block.
+     */
+    protected void coded(boolean dc, int zeros, int value) {
+    }
+
+    protected String contextName(boolean dc, int context) {
+        return (context == 0 ? "Y" : "C") + (dc ? " DC" : " AC");
+    }
+
+    @Override
+    void writeDc(boolean luminance, int value) throws IOException {
+        int category = category(value), context = this.dcContext(luminance);
+        double cost = this.writeToken(this.dcTokens[context], category);
+        cost += this.writeBits(this.leadingBits[this.bitContext(luminance)][0], category, value);
+        this.costs[context] += cost;
+        this.values[context]++;
+        this.coded(true, 0, value);
+    }
+
+    @Override
+    void writeAc(boolean luminance, int zeros, int value) throws IOException {
+        int category = category(value), context = this.acContext(luminance);
+        double cost = this.writeToken(this.acTokens[context], (zeros << 4) | category);
+        cost += this.writeBits(this.leadingBits[this.bitContext(luminance)][1], category, value);
+        this.costs[this.dcTokens.length + context] += cost;
+        this.values[this.dcTokens.length + context]++;
+        this.coded(false, zeros, value);
+    }
+
+    @Override
+    void writeEnd() throws IOException {
+        int context = this.dcContext(true);  // a scan ends where a Y block would start
+        this.costs[context] += this.writeToken(this.dcTokens[context], DC_EOF);
+    }
+
+    @Override
+    int readDc(boolean luminance) throws IOException {
+        int category = this.readToken(this.dcTokens[this.dcContext(luminance)]);
+        if (category == DC_EOF)
+            throw new NoSuchElementException();
+        int value = this.readBits(this.leadingBits[this.bitContext(luminance)][0], category);
+        this.coded(true, 0, value);
+        return value;
+    }
+
+    @Override
+    int readAc(boolean luminance, int[] zeroHolder) throws IOException {
+        int token = this.readToken(this.acTokens[this.acContext(luminance)]);
+        int value = this.readBits(this.leadingBits[this.bitContext(luminance)][1], token & 0x0f);
+        zeroHolder[0] = token >> 4;
+        this.coded(false, zeroHolder[0], value);
+        return value;
+    }
+
+    @Override
+    void printCosts() {
+        for (int i = 0; i < this.costs.length; i++) {
+            if (this.values[i] == 0)
+                continue;
+            boolean dc = i < this.dcTokens.length;
+            System.out.printf("%s: %d values, %d bytes, %.2f bits per value\n",
+                    this.contextName(dc, dc ? i : i - this.dcTokens.length), this.values[i],
+                    (long) (this.costs[i] / 8), this.costs[i] / this.values[i]);
+        }
+    }
+
+    // returns what the token costs in bits
+    private double writeToken(FrequencyTable freqs, int token) throws IOException {
+        double cost = cost(freqs, token);
+        this.encoder.write(freqs, token);
+        freqs.set(token, freqs.get(token) + INCREMENT);
+        return cost;
+    }
+
+    private int readToken(FrequencyTable freqs) throws IOException {
+        int token = this.decoder.read(freqs);
+        freqs.set(token, freqs.get(token) + INCREMENT);
+        return token;
+    }
+
+    // returns what the bits cost
+    private double writeBits(FrequencyTable[] leadingBits, int category, int value)
+            throws IOException {
+        if (category == 0)
+            return 0;
+        int magnitude = Math.abs(value);
+        this.encoder.write(FLAT[1], value < 0 ? 1 : 0);
+        double cost = 1;
+        if (category >= 2) {
+            int bit = (magnitude >> (category - 2)) & 1;
+            cost += cost(leadingBits[category], bit);
+            this.encoder.write(leadingBits[category], bit);
+            leadingBits[category].increment(bit);
+        }
+        if (category >= 3) {
+            this.encoder.write(FLAT[category - 2], magnitude & ((1 << (category - 2)) - 1));
+            cost += category - 2;
+        }
+        return cost;
+    }
+
+    private int readBits(FrequencyTable[] leadingBits, int category) throws IOException {
+        if (category == 0)
+            return 0;
+        boolean negative = this.decoder.read(FLAT[1]) == 1;
+        int magnitude = 1;
+        if (category >= 2) {
+            int bit = this.decoder.read(leadingBits[category]);
+            leadingBits[category].increment(bit);
+            magnitude = (magnitude << 1) | bit;
+        }
+        if (category >= 3)
+            magnitude = (magnitude << (category - 2)) | this.decoder.read(FLAT[category - 2]);
+        return negative ? -magnitude : magnitude;
+    }
+
+    // DC tables, AC tables, then the leading bit tables
+    @Override
+    int[][] tables() {
+        List<int[]> tables = new ArrayList<>();
+        for (FrequencyTable freqs : this.dcTokens)
+            tables.add(frequencies(freqs));
+        for (FrequencyTable freqs : this.acTokens)
+            tables.add(frequencies(freqs));
+        for (FrequencyTable[][] byType : this.leadingBits)
+            for (FrequencyTable[] byCategory : byType)
+                for (FrequencyTable freqs : byCategory)
+                    tables.add(frequencies(freqs));
+        return tables.toArray(new int[0][]);
+    }
+
+    @Override
+    void startFrom(int[][] tables) {
+        int[][] fresh = this.tables();
+        checkState(tables.length == fresh.length, "Prior does not fit the model");
+        for (int t = 0; t < tables.length; t++)
+            checkState(tables[t].length == fresh[t].length, "Prior does not fit the model");
+        int t = 0;
+        for (int c = 0; c < this.dcTokens.length; c++)
+            this.dcTokens[c] = this.table(tables[t++]);
+        for (int c = 0; c < this.acTokens.length; c++)
+            this.acTokens[c] = this.table(tables[t++]);
+        for (FrequencyTable[][] byType : this.leadingBits)
+            for (FrequencyTable[] byCategory : byType)
+                for (int c = 0; c < byCategory.length; c++)
+                    byCategory[c] = this.table(tables[t++]);
+    }
+
+    private static double cost(FrequencyTable freqs, int symbol) {
+        return Math.log((double) freqs.getTotal() / freqs.get(symbol)) / Math.log(2);
+    }
+
+    private static int category(int value) {
+        return 32 - Integer.numberOfLeadingZeros(Math.abs(value));
+    }
+}
+
+/*
+ * The token model with the tables picked by context: the component (Y, Cb or Cr), DC or AC, the zigzag band
+ * of the next coefficient, and how many non-zero AC values the previous block of the component had, which
+ * says a lot about how busy this one will be. The component comes from the position of the block in its MCU,
+ * four Y blocks then Cb then Cr as Jpeg lays them out.
+ */
+class ContextModel extends TokenModel {
+    private static final String[] COMPONENTS = {"Y", "Cb", "Cr"};
+    // first zigzag position of each band
+    static final int[] BANDS = {1, 3, 6, 15, 28};
+    // first non-zero count of each neighbour bucket
+    static final int[] BUCKETS = {0, 1, 3, 7};
+    static final int[] BAND_OF = new int[64];
+    static final int[] BUCKET_OF = new int[64];
+
+    static {
+        for (int i = 0; i < 64; i++) {
+            for (int b = 0; b < BANDS.length; b++)
+                if (i >= BANDS[b])
+                    BAND_OF[i] = b;
+            for (int b = 0; b < BUCKETS.length; b++)
+                if (i >= BUCKETS[b])
+                    BUCKET_OF[i] = b;
+        }
+    }
+
+    private int blocks;
+    private int component;
+    private int position;  // zigzag position of the next AC value
+    private int nonZeros;  // in the current block so far
+    private final int[] previousNonZeros = new int[COMPONENTS.length];
+
+    ContextModel() {
+        super(COMPONENTS.length * BUCKETS.length, COMPONENTS.length * BANDS.length * BUCKETS.length,
+                COMPONENTS.length);
+    }
+
+    @Override
+    int id() {
+        return CONTEXT;
+    }
+
+    static int componentOf(int block) {
+        int b = block % 6;
+        return b < 4 ? 0 : b - 3;
+    }
+
+    @Override
+    protected int dcContext(boolean luminance) {
+        int component = componentOf(this.blocks);
+        return component * BUCKETS.length + BUCKET_OF[this.previousNonZeros[component]];
+    }
+
+    @Override
+    protected int acContext(boolean luminance) {
+        return (this.component * BANDS.length + BAND_OF[this.position]) * BUCKETS.length
+                + BUCKET_OF[this.previousNonZeros[this.component]];
+    }
+
+    @Override
+    protected int bitContext(boolean luminance) {
+        return this.component;
+    }
+
+    @Override
+    protected void coded(boolean dc, int zeros, int value) {
+        if (dc) {
+            this.component = componentOf(this.blocks++);
+            this.position = 1;
+            this.nonZeros = 0;
+            return;
+        }
+        if (value == 0 && zeros == 0) {  // EOB
+            this.position = 64;
+        } else {
+            this.position += zeros + 1;  // ZRL too, its 15 zeros and the zero value make 16
+            if (value != 0)
+                this.nonZeros++;
+        }
+        if (this.position >= 64)
+            this.previousNonZeros[this.component] = this.nonZeros;
+    }
+
+    @Override
+    protected String contextName(boolean dc, int context) {
+        int bucket = context % BUCKETS.length;
+        String neighbours = String.format("neighbour %d+", BUCKETS[bucket]);
+        if (dc)
+            return String.format("%s DC, %s", COMPONENTS[context / BUCKETS.length], neighbours);
+        int band = context / BUCKETS.length % BANDS.length;
+        return String.format("%s AC band %d-%d, %s", COMPONENTS[context / BUCKETS.length / BANDS.length],
+                BANDS[band], band + 1 < BANDS.length ? BANDS[band + 1] - 1 : 63, neighbours);
+    }
+}
+
+/*
+ * Binarises the values the way CABAC or Lepton do, and codes every decision with an adaptive probability of its
+ * own through a BinaryEncoder, which takes no division. For each block:
+ * - DC: whether the difference is zero, then its category in unary, its sign, and the bits below the leading one;
+ * - AC: whether the block ends (EOB) at the next position; if not, a flag per coefficient telling whether it is
+ *   zero, up to the next non-zero one, then that one's category in unary, sign and bits.
+ * Contexts are the component, the zigzag position and the previous block of the component, as for ContextModel.
+ * ZRL values only add 16 to the run they precede. The model always uses the binary coder.
+ */
+class BinaryModel extends ArithModel {
+    private static final int COMPONENTS = 3;
+    private static final int POSITIONS = 64;
+    private static final int BUCKETS = ContextModel.BUCKETS.length;
+    // what a category is coded for: DC, or AC in one of the bands
+    private static final int KINDS = 1 + ContextModel.BANDS.length;
+    private static final int CATEGORIES = 12;
+
+    private final short[] end = probabilities(1);  // the end of the scan, asked before every DC value
+    private final short[] dcZero = probabilities(COMPONENTS * BUCKETS);
+    private final short[] eob = probabilities(COMPONENTS * POSITIONS * BUCKETS);
+    private final short[] zero = probabilities(COMPONENTS * POSITIONS * BUCKETS);
+    private final short[] categories = probabilities(COMPONENTS * KINDS * CATEGORIES);
+    private final short[] signs = probabilities(COMPONENTS * KINDS);
+    // the bit below the leading one, per component, DC or AC, and category
+    private final short[] leadingBits = probabilities(COMPONENTS * 2 * CATEGORIES);
+
+    private BinaryEncoder encoder;
+    private BinaryDecoder decoder;
+    private int blocks;
+    private int component;
+    private int position;  // zigzag position of the next AC value
+    private int nonZeros;  // in the current block so far
+    private final int[] previousNonZeros = new int[COMPONENTS];
+    private int pendingZeros;  // ZRLs written but not coded yet, or a decoded run not returned yet
+    private int pendingValue;  // the decoded value ending that run, 0 if none
+
+    private static short[] probabilities(int n) {
+        short[] probabilities = new short[n];
+        Arrays.fill(probabilities, BinaryEncoder.INITIAL_PROBABILITY);
+        return probabilities;
+    }
+
+    @Override
+    int id() {
+        return BINARY;
+    }
+
+    @Override
+    void beginWrite(OutputStream scan, int coder) {
+        this.encoder = new BinaryEncoder(scan);
+    }
+
+    @Override
+    void endWrite() throws IOException {
+        this.encoder.encode(this.end, 0, 1);
+        this.encoder.finish();
+    }
+
+    @Override
+    void beginRead(InputStream scan, int coder) throws IOException {
+        this.decoder = new BinaryDecoder(scan);
+    }
+
+    private int bucket(int component) {
+        return ContextModel.BUCKET_OF[this.previousNonZeros[component]];
+    }
+
+    // index into eob and zero
+    private int positionContext() {
+        return (this.component * POSITIONS + this.position) * BUCKETS + this.bucket(this.component);
+    }
+
+    private void startBlock(int component) {
+        this.component = component;
+        this.blocks++;
+        this.position = 1;
+        this.nonZeros = 0;
+        this.pendingZeros = 0;
+    }
+
+    private void endBlock() {
+        this.previousNonZeros[this.component] = this.nonZeros;
+    }
+
+    @Override
+    void writeDc(boolean luminance, int value) throws IOException {
+        int component = ContextModel.componentOf(this.blocks);
+        this.encoder.encode(this.end, 0, 0);
+        this.encoder.encode(this.dcZero, component * BUCKETS + this.bucket(component), value != 0 ? 1 : 0);
+        if (value != 0)
+            this.writeMagnitude(component, 0, value, 11);
+        this.startBlock(component);
+    }
+
+    @Override
+    void writeAc(boolean luminance, int zeros, int value) throws IOException {
+        if (value == 0 && zeros == 15) {  // ZRL
+            this.pendingZeros += 16;
+            return;
+        }
+        if (value == 0) {  // EOB
+            this.encoder.encode(this.eob, this.positionContext(), 1);
+            this.endBlock();
+            return;
+        }
+        this.encoder.encode(this.eob, this.positionContext(), 0);
+        for (int run = this.pendingZeros + zeros; run > 0; run--) {
+            this.encoder.encode(this.zero, this.positionContext(), 0);
+            this.position++;
+        }
+        this.pendingZeros = 0;
+        this.encoder.encode(this.zero, this.positionContext(), 1);
+        this.writeMagnitude(this.component, 1 + ContextModel.BAND_OF[this.position], value, 10);
+        this.nonZeros++;
+        if (++this.position == POSITIONS)
+            this.endBlock();
+    }
+
+    private void writeMagnitude(int component, int kind, int value, int maxCategory) throws IOException {
+        int category = 32 - Integer.numberOfLeadingZeros(Math.abs(value));
+        int base = (component * KINDS + kind) * CATEGORIES;
+        for (int k = 1; k < category; k++)
+            this.encoder.encode(this.categories, base + k, 1);
+        if (category < maxCategory)
+            this.encoder.encode(this.categories, base + category, 0);
+        this.encoder.encode(this.signs, component * KINDS + kind, value < 0 ? 1 : 0);
+        int magnitude = Math.abs(value);
+        if (category >= 2) {
+            int leading = ((component * 2) + (kind == 0 ? 0 : 1)) * CATEGORIES + category;
+            this.encoder.encode(this.leadingBits, leading, (magnitude >> (category - 2)) & 1);
+        }
+        if (category >= 3)
+            this.encoder.encodeDirect(magnitude, category - 2);
+    }
+
+    @Override
+    int readDc(boolean luminance) throws IOException {
+        int component = ContextModel.componentOf(this.blocks);
+        if (this.decoder.decode(this.end, 0) == 1)
+            throw new NoSuchElementException();
+        int value = 0;
+        if (this.decoder.decode(this.dcZero, component * BUCKETS + this.bucket(component)) == 1)
+            value = this.readMagnitude(component, 0, 11);
+        this.startBlock(component);
+        return value;
+    }
+
+    @Override
+    int readAc(boolean luminance, int[] zeroHolder) throws IOException {
+        if (this.pendingZeros >= 16) {
+            this.pendingZeros -= 16;
+            zeroHolder[0] = 15;
+            return 0;
+        }
+        if (this.pendingValue != 0) {
+            int value = this.pendingValue;
+            zeroHolder[0] = this.pendingZeros;
+            this.pendingZeros = 0;
+            this.pendingValue = 0;
+            return value;
+        }
+        if (this.decoder.decode(this.eob, this.positionContext()) == 1) {
+            this.endBlock();
+            zeroHolder[0] = 0;
+            return 0;
+        }
+        while (this.decoder.decode(this.zero, this.positionContext()) == 0) {
+            this.pendingZeros++;
+            if (++this.position == POSITIONS)
+                throw new IllegalStateException("Zero run past the end of the block");
+        }
+        this.pendingValue = this.readMagnitude(this.component, 1 + ContextModel.BAND_OF[this.position], 10);
+        this.nonZeros++;
+        if (++this.position == POSITIONS)
+            this.endBlock();
+        return this.readAc(luminance, zeroHolder);
+    }
+
+    private short[][] probabilityTables() {
+        return new short[][]{this.end, this.dcZero, this.eob, this.zero, this.categories, this.signs, this.leadingBits};
+    }
+
+    @Override
+    int[][] tables() {
+        short[][] probabilities = this.probabilityTables();
+        int[][] tables = new int[probabilities.length][];
+        for (int t = 0; t < tables.length; t++) {
+            tables[t] = new int[probabilities[t].length];
+            for (int i = 0; i < tables[t].length; i++)
+                tables[t][i] = probabilities[t][i];
+        }
+        return tables;
+    }
+
+    @Override
+    void startFrom(int[][] tables) {
+        short[][] probabilities = this.probabilityTables();
+        checkState(tables.length == probabilities.length, "Prior does not fit the binary model");
+        for (int t = 0; t < tables.length; t++) {
+            checkState(tables[t].length == probabilities[t].length, "Prior does not fit the binary model");
+            for (int i = 0; i < tables[t].length; i++)
+                probabilities[t][i] = (short) tables[t][i];
+        }
+    }
+
+    /*
+     * The probabilities training ended with, averaged over the images.
+     */
+    @Override
+    int[][] prior(List<int[][]> trained) {
+        int[][] prior = this.tables();
+        for (int t = 0; t < prior.length; t++) {
+            for (int i = 0; i < prior[t].length; i++) {
+                long sum = 0;
+                for (int[][] tables : trained)
+                    sum += tables[t][i];
+                prior[t][i] = trained.isEmpty() ? prior[t][i] : (int) (sum / trained.size());
+            }
+        }
+        return prior;
+    }
+
+    private int readMagnitude(int component, int kind, int maxCategory) throws IOException {
+        int base = (component * KINDS + kind) * CATEGORIES;
+        int category = 1;
+        while (category < maxCategory && this.decoder.decode(this.categories, base + category) == 1)
+            category++;
+        boolean negative = this.decoder.decode(this.signs, component * KINDS + kind) == 1;
+        int magnitude = 1;
+        if (category >= 2) {
+            int leading = ((component * 2) + (kind == 0 ? 0 : 1)) * CATEGORIES + category;
+            magnitude = (magnitude << 1) | this.decoder.decode(this.leadingBits, leading);
+        }
+        if (category >= 3)
+            magnitude = (magnitude << (category - 2)) | this.decoder.decodeDirect(category - 2);
+        return negative ? -magnitude : magnitude;
+    }
+}
@@ -0,0 +1,166 @@
+import java.util.Arrays;
+
+import static preconditions.Preconditions.checkState;
+
+/*
+ * The DCT coefficients of one component, 64 ints per block in zigzag order, block after block in one flat array.
+ * Blocks are numbered from the start of the current scan trunk (restart interval); negative numbers down to
+ * -previousSize() reach back into the trunk before it.
+ * A window plane only keeps the most recent blocks, reusing its array as a ring, for streaming.
+ */
+class CoefficientPlane {
+    final int[] coefficients;
+    private final int capacity;
+    private final boolean window;
+    private int size;
+    private int start;
+    private int previousStart;
+    // per block slot, the edges kept by PiedPiper, see edges() and fixedEdges()
+    private double[] edges;
+    private int[] fixedEdges;
+    private int[] predictions;
+
+    private CoefficientPlane(int capacity, boolean window) {
+        // plus a spare slot for the block being read, which also lets a window keep its last capacity blocks
+        // intact meanwhile; the end of a scan is only noticed while reading one block too many
+        this(new int[(capacity + 1) * 64], capacity, window);
+    }
+
+    private CoefficientPlane(int[] coefficients, int capacity, boolean window) {
+        this.coefficients = coefficients;
+        this.capacity = capacity;
+        this.window = window;
+    }
+
+    /*
+     * A plane large enough for every block of the image.
+     */
+    static CoefficientPlane of(int blocks) {
+        return new CoefficientPlane(blocks, false);
+    }
+
+    /*
+     * A plane holding only the last capacity blocks.
+     */
+    static CoefficientPlane window(int capacity) {
+        return new CoefficientPlane(capacity, true);
+    }
+
+    /*
+     * Begins a new scan trunk; the current one becomes the previous one.
+     */
+    void startTrunk() {
+        this.previousStart = this.start;
+        this.start = this.size;
+    }
+
+    /*
+     * A view of the current and the previous scan trunk that stays put while this plane moves on to
+     * later trunks. Both share the coefficients.
+     */
+    CoefficientPlane snapshot() {
+        checkState(!this.window, "Window planes cannot be snapshot");
+        CoefficientPlane snapshot = new CoefficientPlane(this.coefficients, this.capacity, false);
+        snapshot.size = this.size;
+        snapshot.start = this.start;
+        snapshot.previousStart = this.previousStart;
+        snapshot.edges = this.edges;
+        snapshot.fixedEdges = this.fixedEdges;
+        snapshot.predictions = this.predictions;
+        return snapshot;
+    }
+
+    /*
+     * Number of blocks in the current scan trunk.
+     */
+    int size() {
+        return this.size - this.start;
+    }
+
+    int previousSize() {
+        return this.start - this.previousStart;
+    }
+
+    /*
+     * Index in coefficients of block i's DC value.
+     */
+    int offset(int i) {
+        int block = this.start + i;
+        if (i >= this.size() || i < -this.previousSize() || block < this.size - this.capacity)
+            throw new IndexOutOfBoundsException(String.format("Block %d is not in [%d,%d)",
+                    i, Math.max(-this.previousSize(), this.size - this.capacity - this.start), this.size()));
+        return (this.window ? block % (this.capacity + 1) : block) * 64;
+    }
+
+    /*
+     * Room for 16 doubles per block, from edgeOffset(i) on for block i, allocated on first use, which must not
+     * happen on two threads at once. PiedPiper keeps the inverse DCT of the bottom row and then of the right column
+     * of every final block there, the edges the blocks below and to the right of it are predicted from. Snapshots
+     * share what was kept until they were taken.
+     */
+    double[] edges() {
+        if (this.edges == null)
+            this.edges = new double[this.coefficients.length / 4];
+        return this.edges;
+    }
+
+    /*
+     * Same as edges(), for PiedPiper's fixed-point predictor.
+     */
+    int[] fixedEdges() {
+        if (this.fixedEdges == null)
+            this.fixedEdges = new int[this.coefficients.length / 4];
+        return this.fixedEdges;
+    }
+
+    /*
+     * One int per block slot, at offset(i) / 64 for block i, allocated on first use, where PiedPiper keeps the
+     * DC predictions it makes ahead of writing a trunk. Shared with snapshots like edges().
+     */
+    int[] predictions() {
+        if (this.predictions == null)
+            this.predictions = new int[this.coefficients.length / 64];
+        return this.predictions;
+    }
+
+    int edgeOffset(int i) {
+        return this.offset(i) / 4;
+    }
+
+    /*
+     * Offset of block i of the current trunk, added or not, for filling a plane of the whole image
+     * out of order; addAll() then takes the blocks in.
+     */
+    int slot(int i) {
+        int block = this.start + i;
+        checkState(!this.window && i >= 0 && block < this.capacity, String.format("Block %d is outside the frame", i));
+        return block * 64;
+    }
+
+    /*
+     * Appends n blocks that were filled in through slot().
+     */
+    void addAll(int n) {
+        checkState(!this.window && this.size + n <= this.capacity, "More blocks than the frame holds");
+        this.size += n;
+    }
+
+    /*
+     * Zeroes the slot after the last block and returns its offset. The block only becomes part
+     * of the plane once add() is called, so that a half-read block can be dropped.
+     */
+    int next() {
+        int offset = (this.window ? this.size % (this.capacity + 1) : this.size) * 64;
+        Arrays.fill(this.coefficients, offset, offset + 64, 0);
+        return offset;
+    }
+
+    /*
+     * Appends the block prepared with next() and returns its number.
+     */
+    int add() {
+        checkState(this.window || this.size < this.capacity, "More blocks than the frame holds");
+        this.size++;
+        return this.size() - 1;
+    }
+}
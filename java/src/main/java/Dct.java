@@ -1,45 +1,61 @@
 import java.util.Arrays;
 
 public class Dct {
-    private static final double cucvZero = 1 / Math.sqrt(2);
+    /*
+     * BASIS[x][u] = C(u) cos((2x+1)u pi/16) / 2 with C(0) = 1/sqrt(2), pdf P27 A.3.3. The 2-D transform is separable:
+     * the kernel of sample (x, y) and frequency (u, v), scaling included, is BASIS[x][u] * BASIS[y][v], so a block
+     * transforms as 8 1-D passes over its rows and 8 over its columns, 1024 multiply-adds instead of 4096 and no
+     * trig. Results agree with the direct formula to within 1e-9 of a sample, but not bit for bit, so PiedPiper's
+     * edges, which get rounded, keep to the direct formula (DctInt).
+     */
+    static final double[][] BASIS = new double[8][8];
+
+    static {
+        for (int x = 0; x < 8; x++)
+            for (int u = 0; u < 8; u++)
+                BASIS[x][u] = (u == 0 ? 1 / Math.sqrt(2) : 1) * Math.cos(((2 * x + 1) * u * Math.PI) / 16) / 2;
+    }
 
     public static double[][] dct(double[][] input) {
+        double[][] rows = new double[8][8];  // rows[y][u], the rows transformed
+        for (int y = 0; y < 8; y++)
+            for (int u = 0; u < 8; u++) {
+                double sum = 0;
+                for (int x = 0; x < 8; x++)
+                    sum += (input[y][x] - 128) * BASIS[x][u];
+                rows[y][u] = sum;
+            }
         double[][] output = new double[8][8];
-        for (int v = 0; v < 8; v++) {
+        for (int v = 0; v < 8; v++)
             for (int u = 0; u < 8; u++) {
                 double sum = 0;
                 for (int y = 0; y < 8; y++)
-                    for (int x = 0; x < 8; x++)
-                        sum += (input[y][x] - 128) * kernel(x, y, u, v);
-                double cu = (u == 0) ? cucvZero : 1, cv = (v == 0) ? cucvZero : 1;
-                output[v][u] = (cu * cv) / 4 * sum;
+                    sum += rows[y][u] * BASIS[y][v];
+                output[v][u] = sum;
             }
-        }
         return output;
     }
 
     public static double[][] idct(double[][] input) {
+        double[][] rows = new double[8][8];  // rows[v][x], the frequency rows transformed back
+        for (int v = 0; v < 8; v++)
+            for (int x = 0; x < 8; x++) {
+                double sum = 0;
+                for (int u = 0; u < 8; u++)
+                    sum += input[v][u] * BASIS[x][u];
+                rows[v][x] = sum;
+            }
         double[][] output = new double[8][8];
-        for (int y = 0; y < 8; y++) {
+        for (int y = 0; y < 8; y++)
             for (int x = 0; x < 8; x++) {
                 double sum = 0;
-                for (int v = 0; v < 8; v++) {
-                    double cv = (v == 0) ? cucvZero : 1;
-                    for (int u = 0; u < 8; u++) {
-                        double cu = (u == 0) ? cucvZero : 1;
-                        sum += cu * cv * input[v][u] * kernel(x, y, u, v);
-                    }
-                }
-                output[y][x] = sum / 4 + 128;
+                for (int v = 0; v < 8; v++)
+                    sum += rows[v][x] * BASIS[y][v];
+                output[y][x] = sum + 128;
             }
-        }
         return output;
     }
 
-    private static double kernel(int x, int y, int u, int v) {
-        return Math.cos(((2 * x + 1) * u * Math.PI) / 16) * Math.cos(((2 * y + 1) * v * Math.PI) / 16);
-    }
-
     private static double[][] int2double(int[][] input) {
         double[][] output = new double[8][8];
         for (int i = 0; i < 8; i++)
@@ -1,30 +1,170 @@
-import java.util.stream.IntStream;
+import java.util.Random;
 
+/*
+ * The inverse DCT of a single row or column of a block, the edges PiedPiper predicts from. The floating-point
+ * edges are the direct formula, pdf P27 A.3.3, evaluated term by term in its own order, only with the cosines
+ * looked up instead of computed: predictions are rounded to quantization steps, and on flat blocks they land
+ * exactly on halves, so an edge that is off in the last bit decodes existing .jpp files differently. That is why
+ * they are not separable like Dct; the fixed-point edges are, having no such history. The block is read in zigzag
+ * order, where it sits in a plane, and the samples are written into an array of the caller's, so nothing is
+ * allocated.
+ */
 public class DctInt {
     private static final double cucvZero = 1 / Math.sqrt(2);
+    // COS[x][u] = cos((2x + 1)u pi / 16), the same doubles as Math.cos gives the direct formula
+    private static final double[][] COS = new double[8][8];
+    // CUCV[v * 8 + u] = C(u) C(v)
+    private static final double[] CUCV = new double[64];
 
-    public static double[] idct8x1(int[][] input, int x) {
-        return IntStream.range(0, 8).mapToDouble(y -> idctKernel(input, x, y)).toArray();
+    static {
+        for (int x = 0; x < 8; x++)
+            for (int u = 0; u < 8; u++)
+                COS[x][u] = Math.cos(((2 * x + 1) * u * Math.PI) / 16);
+        for (int v = 0; v < 8; v++) {
+            double cv = (v == 0) ? cucvZero : 1;
+            for (int u = 0; u < 8; u++) {
+                double cu = (u == 0) ? cucvZero : 1;
+                CUCV[v * 8 + u] = cu * cv;
+            }
+        }
     }
 
+    /*
+     * Column x of the block whose 64 coefficients start at offset, top to bottom, into output from outputPos on.
+     * Without dc, the DC coefficient is taken as 0.
+     */
+    public static void idct8x1(int[] zigzag, int offset, boolean dc, int x, double[] output, int outputPos) {
+        for (int y = 0; y < 8; y++)
+            output[outputPos + y] = idctKernel(zigzag, offset, dc, x, y);
+    }
 
-    public static double[] idct1x8(int[][] input, int y) {
-        return IntStream.range(0, 8).mapToDouble(x -> idctKernel(input, x, y)).toArray();
+    /*
+     * Row y of the block whose 64 coefficients start at offset, left to right, into output from outputPos on.
+     * Without dc, the DC coefficient is taken as 0.
+     */
+    public static void idct1x8(int[] zigzag, int offset, boolean dc, int y, double[] output, int outputPos) {
+        for (int x = 0; x < 8; x++)
+            output[outputPos + x] = idctKernel(zigzag, offset, dc, x, y);
     }
 
-    private static double idctKernel(int[][] input, int x, int y) {
+    // bit for bit idctDirect: the same products, summed in the same order
+    private static double idctKernel(int[] zigzag, int offset, boolean dc, int x, int y) {
+        double[] cosX = COS[x], cosY = COS[y];
+        double sum = 0;
+        for (int v = 0; v < 8; v++) {
+            for (int u = 0; u < 8; u++) {
+                int p = v * 8 + u;
+                int coefficient = p == 0 && !dc ? 0 : zigzag[offset + ZigZag.INDEX[p]];
+                sum += CUCV[p] * coefficient * (cosX[u] * cosY[v]);
+            }
+        }
+        return sum / 4 + 128;
+    }
+
+    /*
+     * Dct.BASIS in 1/2^16, written out rather than derived with Math.cos, whose last bit may differ between JVMs.
+     */
+    private static final int[][] FIXED_BASIS = {
+            {23170, 32138, 30274, 27246, 23170, 18205, 12540, 6393},
+            {23170, 27246, 12540, -6393, -23170, -32138, -30274, -18205},
+            {23170, 18205, -12540, -32138, -23170, 6393, 30274, 27246},
+            {23170, 6393, -30274, -18205, 23170, 27246, -12540, -32138},
+            {23170, -6393, -30274, 18205, 23170, -27246, -12540, 32138},
+            {23170, -18205, -12540, 32138, -23170, -6393, 30274, -27246},
+            {23170, -27246, 12540, 6393, -23170, 32138, -30274, 18205},
+            {23170, -32138, 30274, -27246, 23170, -18205, 12540, -6393}};
+    private static final int FIXED_BASIS_BITS = 16;
+    // fractional bits of the samples fixed8x1 and fixed1x8 give
+    static final int FIXED_FRACTION_BITS = 8;
+
+    /*
+     * Integer counterpart of idct8x1, in 1/2^FIXED_FRACTION_BITS and without the level shift of 128. The same on
+     * every JVM; it stays within 0.15 of idct8x1 - 128 even with all 64 coefficients at random in the baseline
+     * range, and much closer on actual images (see main and PredictorCheck).
+     */
+    public static void fixed8x1(int[] zigzag, int offset, boolean dc, int x, int[] output, int outputPos) {
+        int[] basis = FIXED_BASIS[x];
+        expand(fold(zigzag, offset, dc, 0, 1, basis), fold(zigzag, offset, dc, 8, 1, basis),
+                fold(zigzag, offset, dc, 16, 1, basis), fold(zigzag, offset, dc, 24, 1, basis),
+                fold(zigzag, offset, dc, 32, 1, basis), fold(zigzag, offset, dc, 40, 1, basis),
+                fold(zigzag, offset, dc, 48, 1, basis), fold(zigzag, offset, dc, 56, 1, basis), output, outputPos);
+    }
+
+    /*
+     * Integer counterpart of idct1x8, see fixed8x1.
+     */
+    public static void fixed1x8(int[] zigzag, int offset, boolean dc, int y, int[] output, int outputPos) {
+        int[] basis = FIXED_BASIS[y];
+        expand(fold(zigzag, offset, dc, 0, 8, basis), fold(zigzag, offset, dc, 1, 8, basis),
+                fold(zigzag, offset, dc, 2, 8, basis), fold(zigzag, offset, dc, 3, 8, basis),
+                fold(zigzag, offset, dc, 4, 8, basis), fold(zigzag, offset, dc, 5, 8, basis),
+                fold(zigzag, offset, dc, 6, 8, basis), fold(zigzag, offset, dc, 7, 8, basis), output, outputPos);
+    }
+
+    // in 1/2^FIXED_BASIS_BITS; longs, as dequantized coefficients may take up to 19 bits
+    private static long fold(int[] zigzag, int offset, boolean dc, int start, int stride, int[] basis) {
+        long sum = (long) (start == 0 && !dc ? 0 : zigzag[offset + ZigZag.INDEX[start]]) * basis[0];
+        for (int k = 1, p = start + stride; k < 8; k++, p += stride)
+            sum += (long) zigzag[offset + ZigZag.INDEX[p]] * basis[k];
+        return sum;
+    }
+
+    private static void expand(long f0, long f1, long f2, long f3, long f4, long f5, long f6, long f7,
+                               int[] output, int outputPos) {
+        int shift = 2 * FIXED_BASIS_BITS - FIXED_FRACTION_BITS;
+        for (int i = 0; i < 8; i++) {
+            int[] basis = FIXED_BASIS[i];
+            long sum = f0 * basis[0] + f1 * basis[1] + f2 * basis[2] + f3 * basis[3]
+                    + f4 * basis[4] + f5 * basis[5] + f6 * basis[6] + f7 * basis[7];
+            output[outputPos + i] = (int) ((sum + (1L << (shift - 1))) >> shift);
+        }
+    }
+
+    // the direct formula, pdf P27 A.3.3, as PiedPiper first computed its edges
+    private static double idctDirect(int[][] input, int x, int y) {
         double sum = 0;
         for (int v = 0; v < 8; v++) {
             double cv = (v == 0) ? cucvZero : 1;
             for (int u = 0; u < 8; u++) {
                 double cu = (u == 0) ? cucvZero : 1;
-                sum += cu * cv * input[v][u] * kernel(x, y, u, v);
+                sum += cu * cv * input[v][u]
+                        * (Math.cos(((2 * x + 1) * u * Math.PI) / 16) * Math.cos(((2 * y + 1) * v * Math.PI) / 16));
             }
         }
         return sum / 4 + 128;
     }
 
-    private static double kernel(int x, int y, int u, int v) {
-        return Math.cos(((2 * x + 1) * u * Math.PI) / 16) * Math.cos(((2 * y + 1) * v * Math.PI) / 16);
+    /*
+     * Checks the edges against the direct formula on random blocks with coefficients in the baseline range,
+     * every other one flat: the floating-point edges have to be equal, the fixed-point ones close.
+     */
+    public static void main(String[] args) {
+        Random random = new Random(338);
+        long mismatches = 0;
+        double maxFixedError = 0;
+        int[] zigzag = new int[64];
+        double[] column = new double[8], row = new double[8];
+        int[] fixedColumn = new int[8], fixedRow = new int[8];
+        for (int n = 0; n < 100000; n++) {
+            for (int j = 0; j < 64; j++)
+                zigzag[j] = j == 0 || n % 2 == 0 ? random.nextInt(2047 * 2 + 1) - 2047 : 0;
+            int[][] block = ZigZag.zigzag2block(zigzag);
+            int edge = random.nextInt(8);
+            idct8x1(zigzag, 0, true, edge, column, 0);
+            idct1x8(zigzag, 0, true, edge, row, 0);
+            fixed8x1(zigzag, 0, true, edge, fixedColumn, 0);
+            fixed1x8(zigzag, 0, true, edge, fixedRow, 0);
+            for (int i = 0; i < 8; i++) {
+                if (Double.doubleToLongBits(column[i]) != Double.doubleToLongBits(idctDirect(block, edge, i)))
+                    mismatches++;
+                if (Double.doubleToLongBits(row[i]) != Double.doubleToLongBits(idctDirect(block, i, edge)))
+                    mismatches++;
+                double scale = 1 << FIXED_FRACTION_BITS;
+                maxFixedError = Math.max(maxFixedError, Math.abs(fixedColumn[i] / scale + 128 - column[i]));
+                maxFixedError = Math.max(maxFixedError, Math.abs(fixedRow[i] / scale + 128 - row[i]));
+            }
+        }
+        System.out.printf("Samples differing from the direct formula: %d\n", mismatches);
+        System.out.printf("Largest difference of the fixed-point edges: %.3g\n", maxFixedError);
     }
 }
@@ -0,0 +1,76 @@
+import arithmetic.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.Supplier;
+
+public class FrequencyTableBenchmark {
+    private static final int SYMBOLS = 32769;  // as in JpegArithEncoder, the last one is EOF
+
+    /*
+     * Symbols shaped like the ones JpegArithEncoder writes: short zero runs, small magnitudes, either sign.
+     */
+    static int[] symbols(int n, long seed) {
+        Random random = new Random(seed);
+        int[] symbols = new int[n];
+        for (int i = 0; i < n; i++) {
+            int zeros = Math.min(15, (int) (-Math.log(1 - random.nextDouble()) * 1.5));
+            int magnitude = Math.min(1023, (int) (-Math.log(1 - random.nextDouble()) * 4));
+            symbols[i] = (zeros << 11) | (random.nextBoolean() ? 1 << 10 : 0) | magnitude;
+        }
+        return symbols;
+    }
+
+    private static byte[] encode(FrequencyTable freqs, int[] symbols) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BitOutputStream output = new BitOutputStream(bytes);
+        ArithmeticEncoder encoder = new ArithmeticEncoder(32, output);
+        for (int symbol : symbols) {
+            encoder.write(freqs, symbol);
+            freqs.increment(symbol);
+        }
+        encoder.write(freqs, SYMBOLS - 1);
+        encoder.finish();
+        output.close();
+        return bytes.toByteArray();
+    }
+
+    private static int[] decode(FrequencyTable freqs, byte[] data, int n) throws IOException {
+        ArithmeticDecoder decoder = new ArithmeticDecoder(32, new BitInputStream(new ByteArrayInputStream(data)));
+        int[] symbols = new int[n];
+        for (int i = 0; i < n; i++) {
+            symbols[i] = decoder.read(freqs);
+            freqs.increment(symbols[i]);
+        }
+        return symbols;
+    }
+
+    private static byte[] run(String name, Supplier<FrequencyTable> table, int[] symbols) throws IOException {
+        long start = System.nanoTime();
+        byte[] data = encode(table.get(), symbols);
+        long middle = System.nanoTime();
+        int[] decoded = decode(table.get(), data, symbols.length);
+        long end = System.nanoTime();
+        if (!Arrays.equals(symbols, decoded))
+            throw new IllegalStateException(name + " did not decode what it encoded");
+        System.out.printf("%s: encode %.3f Msym/s, decode %.3f Msym/s, %d bytes\n", name,
+                symbols.length * 1e3 / (middle - start), symbols.length * 1e3 / (end - middle), data.length);
+        return data;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int[] symbols = symbols(n, 338);
+        FlatFrequencyTable flat = new FlatFrequencyTable(SYMBOLS);
+        for (int round = 0; round < 3; round++) {
+            byte[] simple = run("SimpleFrequencyTable", () -> new SimpleFrequencyTable(flat), symbols);
+            byte[] fenwick = run("FenwickFrequencyTable", () -> new FenwickFrequencyTable(flat), symbols);
+            if (!Arrays.equals(simple, fenwick))
+                throw new IllegalStateException("Fenwick table coded differently from the simple one");
+            run("DecayingFrequencyTable", () -> new DecayingFrequencyTable(flat, 1 << 17), symbols);
+        }
+    }
+}
@@ -1,15 +1,22 @@
 import java.util.*;
 import java.util.function.IntSupplier;
 
-import static java.lang.Math.pow;
 import static preconditions.Preconditions.checkArgument;
 import static preconditions.Preconditions.checkState;
 
 public class Huffman {
-    private Map<Byte, Integer> symbol2code = new HashMap<>();
+    static final int LOOKAHEAD = 9;
     private Map<Integer, Byte> code2symbol = new HashMap<>();
     private Map<Integer, Integer> codeLength = new HashMap<>();
     private int[] lengthList;
+    // canonical decode tables, pdf P135 F.2.2.3 / libjpeg jdhuff.c
+    private int[] lookup = new int[1 << LOOKAHEAD];  // (length << 8) | symbol, 0 if the code is longer
+    private int[] maxCode = new int[17];  // largest code of each length, -1 if none
+    private int[] valOffset = new int[17];  // maps a code of each length to its index in values
+    private byte[] values;
+    // encode tables indexed by symbol, length 0 if the symbol is not in the table
+    private int[] codes = new int[256];
+    private int[] lengths = new int[256];
     private String name;
     private byte[] bytes;
 
@@ -18,30 +25,79 @@ public class Huffman {
         for (int i = 0; i < 16; i++) {
             code <<= 1;
             int count = bytes[i] & 0xff;
+            this.valOffset[i + 1] = pos - 16 - code;
             for (int j = 0; j < count; j++) {
                 byte symbol = bytes[pos++];
                 checkState((code & ~this.mask(i + 1)) == 0);
-                symbol2code.put(symbol, code);
+                this.codes[symbol & 0xff] = code;
+                this.lengths[symbol & 0xff] = i + 1;
                 code2symbol.put(code, symbol);
                 codeLength.put(code, i + 1);
+                if (i + 1 <= LOOKAHEAD) {
+                    int shift = LOOKAHEAD - i - 1;
+                    Arrays.fill(this.lookup, code << shift, (code + 1) << shift, ((i + 1) << 8) | (symbol & 0xff));
+                }
                 code++;
             }
+            this.maxCode[i + 1] = count > 0 ? code - 1 : -1;
         }
         this.lengthList = codeLength.values().stream().mapToInt(Integer::intValue).distinct().sorted().toArray();
+        this.values = Arrays.copyOfRange(bytes, 16, pos);
         this.bytes = bytes;
     }
 
+    /*
+     * Builds the optimal table for the given frequencies of symbols 0-255, with no code longer than 16 bits
+     * and no code of all 1-bits, pdf P145 K.2
+     */
     Huffman(int[] frequencies) {
-        this(TreeNode.build(frequencies));
-    }
-
-    public int findCode(byte symbol, int[] bitsHolder) {
-        checkState(this.symbol2code.containsKey(symbol));
-        int code = this.symbol2code.get(symbol);
-        bitsHolder[0] = this.codeLength.get(code);
-        return code;
+        this(optimalTable(frequencies));
+    }
+
+    /**
+     * Encodes a value as its run/category symbol followed by the category's extra bits, pdf P89 F.1.2.1-2.
+     * The category comes from the bit length of the magnitude; negative values are sent as value - 1.
+     *
+     * @return (total length << 32) | (code << category) | extra bits
+     */
+    public long encode(int zeros, int value) {
+        int category = 32 - Integer.numberOfLeadingZeros(value < 0 ? -value : value);
+        int symbol = (zeros << 4) | category;
+        int length = this.lengths[symbol];
+        if (length == 0)
+            throw new IllegalStateException(String.format("Symbol %x not found in huffman table %s", symbol, this.name));
+        int bits = (value < 0 ? value - 1 : value) & ((1 << category) - 1);
+        return ((long) (length + category) << 32) | ((long) this.codes[symbol] << category) | bits;
+    }
+
+    int getCode(int symbol) {
+        return this.codes[symbol];
+    }
+
+    int getCodeLength(int symbol) {
+        return this.lengths[symbol];
+    }
+
+    /**
+     * Decodes the symbol at the head of the next 16 bits of the scan (MSB first, zero padded when
+     * fewer are available). Codes up to LOOKAHEAD bits resolve with a single table lookup, longer
+     * ones fall back to the maxCode/valOffset walk.
+     *
+     * @return (code length << 8) | symbol, or -1 if no code matches
+     */
+    public int decode(int bits) {
+        int entry = this.lookup[bits >>> (16 - LOOKAHEAD)];
+        if (entry != 0)
+            return entry;
+        for (int length = LOOKAHEAD + 1; length <= 16; length++) {
+            int code = bits >>> (16 - length);
+            if (code <= this.maxCode[length])
+                return (length << 8) | (this.values[this.valOffset[length] + code] & 0xff);
+        }
+        return -1;
     }
 
+    // Byte-at-a-time reference decoder, superseded by decode(int) and kept for HuffmanBenchmark.
     public Result findSymbol(int current, int offset, IntSupplier next) {
         int bits = 8 - offset;
         int value = current & this.mask(bits);
@@ -70,7 +126,7 @@ public class Huffman {
 
     private int mask(int lsb) {
         checkArgument(lsb >= 0 && lsb <= 30);
-        return (int) pow(2, lsb) - 1;
+        return (1 << lsb) - 1;
     }
 
     static class Result {
@@ -104,8 +160,82 @@ public class Huffman {
     }
 
     public String toString() {
-        return String.format("symbol2code: %s\ncode2symbol: %s\ncodeLength: %s\nlengthList: %s",
-                this.symbol2code, this.code2symbol, this.codeLength, Arrays.toString(this.lengthList));
+        return String.format("code2symbol: %s\ncodeLength: %s\nlengthList: %s",
+                this.code2symbol, this.codeLength, Arrays.toString(this.lengthList));
+    }
+
+    /*
+     * Returns BITS followed by HUFFVAL for the frequencies, as in a DHT segment. A reserved symbol 256 with
+     * frequency 1 keeps every real code off the all-1 code, Figure K.1, and codes longer than 16 bits are moved
+     * up the tree, Figure K.3.
+     */
+    static byte[] optimalTable(int[] frequencies) {
+        checkArgument(frequencies.length <= 256);
+        long[] freq = new long[257];
+        for (int i = 0; i < frequencies.length; i++)
+            freq[i] = frequencies[i];
+        freq[256] = 1;
+        int[] codeSize = new int[257];
+        int[] others = new int[257];
+        Arrays.fill(others, -1);
+        while (true) {
+            // the two least frequent trees, the higher symbol first among equals
+            int c1 = -1, c2 = -1;
+            for (int i = 0; i < 257; i++)
+                if (freq[i] > 0 && (c1 < 0 || freq[i] <= freq[c1]))
+                    c1 = i;
+            for (int i = 0; i < 257; i++)
+                if (freq[i] > 0 && i != c1 && (c2 < 0 || freq[i] <= freq[c2]))
+                    c2 = i;
+            if (c2 < 0)
+                break;
+            freq[c1] += freq[c2];
+            freq[c2] = 0;
+            codeSize[c1]++;
+            while (others[c1] >= 0) {
+                c1 = others[c1];
+                codeSize[c1]++;
+            }
+            others[c1] = c2;
+            codeSize[c2]++;
+            while (others[c2] >= 0) {
+                c2 = others[c2];
+                codeSize[c2]++;
+            }
+        }
+        int[] bits = new int[33];
+        for (int i = 0; i < 257; i++)
+            if (codeSize[i] > 0) {
+                checkState(codeSize[i] <= 32, "Huffman code longer than 32 bits");
+                bits[codeSize[i]]++;
+            }
+        for (int i = 32; i > 16; i--) {
+            while (bits[i] > 0) {
+                int j = i - 2;
+                while (bits[j] == 0)
+                    j--;
+                bits[i] -= 2;
+                bits[i - 1]++;
+                bits[j + 1] += 2;
+                bits[j]--;
+            }
+        }
+        int longest = 16;
+        while (bits[longest] == 0)
+            longest--;
+        bits[longest]--;  // the reserved symbol
+        int count = 0;
+        for (int i = 1; i <= 16; i++)
+            count += bits[i];
+        byte[] bytes = new byte[16 + count];
+        for (int i = 1; i <= 16; i++)
+            bytes[i - 1] = (byte) bits[i];
+        int pos = 16;
+        for (int length = 1; length <= 32 && pos < bytes.length; length++)
+            for (int symbol = 0; symbol < 256; symbol++)
+                if (codeSize[symbol] == length)
+                    bytes[pos++] = (byte) symbol;
+        return bytes;
     }
 
     public static void main(String[] args) {
@@ -115,64 +245,3 @@ public class Huffman {
         System.out.println(new Huffman(input2));
     }
 }
-
-class TreeNode implements Comparable<TreeNode> {
-    private final int symbol;
-    private final int freq;
-    private final TreeNode left, right;
-
-    TreeNode(int symbol, int freq, TreeNode left, TreeNode right) {
-        this.symbol = symbol;
-        this.freq = freq;
-        this.left = left;
-        this.right = right;
-    }
-
-    boolean isLeaf() {
-        return left == null && right == null;
-    }
-
-    @Override
-    public int compareTo(TreeNode o) {
-        return this.freq - o.freq;
-    }
-
-    static byte[] build(int[] frequencies) {
-        PriorityQueue<TreeNode> heap = new PriorityQueue<>();
-        for (int i = 0; i < frequencies.length; i++)
-            if (frequencies[i] > 0)
-                heap.add(new TreeNode(i, frequencies[i], null, null));
-        int count = heap.size();
-        while (heap.size() > 1) {
-            TreeNode right = heap.remove();
-            TreeNode left = heap.remove();
-            heap.add(new TreeNode(0, left.freq + right.freq, left, right));
-        }
-        Deque<TreeNode> queue = new ArrayDeque<>(heap);
-        List<List<Integer>> result = new ArrayList<>();
-        while (!queue.isEmpty()) {
-            List<Integer> level = new ArrayList<>();
-            int size = queue.size();
-            for (int i = 0; i < size; i++) {
-                TreeNode node = queue.remove();
-                if (node.isLeaf()) {
-                    level.add(node.symbol);
-                } else {
-                    queue.add(node.left);
-                    queue.add(node.right);
-                }
-            }
-            result.add(level);
-        }
-        byte[] bytes = new byte[16 + count];
-        int pos = 16;
-        for (int i = 1; i < result.size(); i++) {
-            if (result.get(i).isEmpty())
-                continue;
-            bytes[i - 1] = (byte) result.get(i).size();
-            for (int value : result.get(i))
-                bytes[pos++] = (byte) value;
-        }
-        return bytes;
-    }
-}
\ No newline at end of file
@@ -0,0 +1,102 @@
+import java.util.Arrays;
+import java.util.Random;
+
+public class HuffmanBenchmark {
+    // Luminance AC table, pdf P158 K.3.3.2 Table K.5
+    private static final byte[] STANDARD_AC0 = toBytes(
+            0x00, 0x02, 0x01, 0x03, 0x03, 0x02, 0x04, 0x03, 0x05, 0x05, 0x04, 0x04, 0x00, 0x00, 0x01, 0x7d,
+            0x01, 0x02, 0x03, 0x00, 0x04, 0x11, 0x05, 0x12, 0x21, 0x31, 0x41, 0x06, 0x13, 0x51, 0x61, 0x07,
+            0x22, 0x71, 0x14, 0x32, 0x81, 0x91, 0xa1, 0x08, 0x23, 0x42, 0xb1, 0xc1, 0x15, 0x52, 0xd1, 0xf0,
+            0x24, 0x33, 0x62, 0x72, 0x82, 0x09, 0x0a, 0x16, 0x17, 0x18, 0x19, 0x1a, 0x25, 0x26, 0x27, 0x28,
+            0x29, 0x2a, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48, 0x49,
+            0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69,
+            0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x83, 0x84, 0x85, 0x86, 0x87, 0x88, 0x89,
+            0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5, 0xa6, 0xa7,
+            0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3, 0xc4, 0xc5,
+            0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda, 0xe1, 0xe2,
+            0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf1, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+            0xf9, 0xfa);
+
+    private static byte[] toBytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++)
+            bytes[i] = (byte) values[i];
+        return bytes;
+    }
+
+    /*
+     * Draws symbols with probability 2^-length, which is what the table is optimal for,
+     * and packs their codes into a byte array without stuffing.
+     */
+    private static byte[] encode(Huffman huffman, byte[] symbols, int n, long seed) {
+        Random random = new Random(seed);
+        byte[] candidates = new byte[1 << 16];
+        int m = 0;
+        for (int i = 16; i < symbols.length; i++) {
+            for (int j = 1 << (16 - huffman.getCodeLength(symbols[i] & 0xff)); j > 0 && m < candidates.length; j--)
+                candidates[m++] = symbols[i];
+        }
+        byte[] out = new byte[n * 2 + 8];
+        long acc = 0;
+        int accBits = 0, pos = 0;
+        for (int i = 0; i < n; i++) {
+            int symbol = candidates[random.nextInt(m)] & 0xff;
+            acc = (acc << huffman.getCodeLength(symbol)) | huffman.getCode(symbol);
+            accBits += huffman.getCodeLength(symbol);
+            while (accBits >= 8) {
+                accBits -= 8;
+                out[pos++] = (byte) (acc >>> accBits);
+            }
+        }
+        if (accBits > 0)
+            out[pos++] = (byte) ((acc << (8 - accBits)) | ((1 << (8 - accBits)) - 1));
+        return Arrays.copyOf(out, pos);
+    }
+
+    private static long legacy(Huffman huffman, byte[] data, int n) {
+        int[] pos = {1};
+        int current = data[0] & 0xff, offset = 0;
+        long checksum = 0;
+        for (int i = 0; i < n; i++) {
+            Huffman.Result res = huffman.findSymbol(current, offset, () -> pos[0] < data.length ? data[pos[0]++] & 0xff : 0xff);
+            current = res.current;
+            offset = res.offset;
+            checksum = checksum * 31 + (res.symbol & 0xff);
+        }
+        return checksum;
+    }
+
+    private static long lookup(Huffman huffman, byte[] data, int n) {
+        long bits = 0;
+        int count = 0, pos = 0;
+        long checksum = 0;
+        for (int i = 0; i < n; i++) {
+            while (count <= 56) {
+                bits = (bits << 8) | (pos < data.length ? data[pos++] & 0xff : 0xff);
+                count += 8;
+            }
+            int entry = huffman.decode((int) (bits >>> (count - 16)) & 0xffff);
+            count -= entry >> 8;
+            checksum = checksum * 31 + (entry & 0xff);
+        }
+        return checksum;
+    }
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        Huffman huffman = new Huffman(STANDARD_AC0);
+        byte[] data = encode(huffman, STANDARD_AC0, n, 338);
+        System.out.printf("%d symbols in %d bytes\n", n, data.length);
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            long expected = legacy(huffman, data, n);
+            long middle = System.nanoTime();
+            long actual = lookup(huffman, data, n);
+            long end = System.nanoTime();
+            if (expected != actual)
+                throw new IllegalStateException("Lookup decoder diverged from findSymbol");
+            System.out.printf("round %d: findSymbol %.1f Msym/s, decode %.1f Msym/s\n", round,
+                    n * 1e3 / (middle - start), n * 1e3 / (end - middle));
+        }
+    }
+}
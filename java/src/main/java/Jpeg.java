@@ -1,16 +1,24 @@
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.IntStream;
 
 import static java.lang.Math.abs;
-import static java.lang.Math.pow;
 import static preconditions.Preconditions.checkArgument;
 import static preconditions.Preconditions.checkState;
 
 public class Jpeg {
     private final String inputFileName;
     private final String outputFileName;
-    private InputStream is;
-    private int bytesRead = 0;
+    private ByteBuffer in;
+    private FileChannel inputChannel;
+    private FileChannel outputChannel;
+    private final byte[] copyBuffer = new byte[8192];
     private int bytesWritten = 0;
     protected int width;
     protected int[] quantizationTable0;
@@ -19,61 +27,102 @@ public class Jpeg {
     private Huffman dc1;
     private Huffman ac0;
     private Huffman ac1;
-    private int scanCurrent;
-    private int scanOffset;
-    private int dcValueBits;
-    private int acValueBits;
-    protected List<int[]> componentY = new ArrayList<>();
-    protected List<int[]> componentCb = new ArrayList<>();
-    protected List<int[]> componentCr = new ArrayList<>();
-    protected Map<Huffman, Map<Integer, Integer>> symbolFreqStats = new HashMap<>();
+    protected ScanBitReader scanReader;
+    protected final ScanBitWriter scanWriter = new ScanBitWriter();
+    private final int[] quantized = new int[64];
+    private final int[] zeroHolder = new int[1];
+    private boolean streaming;
+    private boolean parallel;
+    protected int restartInterval;
+    protected int mcus;
+    // restart intervals decoded ahead of time, see decodeIntervals
+    private int[] intervalEnds;
+    private int[] intervalMcus;
+    private int nextInterval;
+    protected CoefficientPlane planeY;
+    protected CoefficientPlane planeCb;
+    protected CoefficientPlane planeCr;
+    protected final ScanStatistics statistics = new ScanStatistics();
 
     public Jpeg(String inputFileName, String outputFileName) {
         this.inputFileName = inputFileName;
         this.outputFileName = outputFileName;
     }
 
+    /*
+     * In streaming mode every MCU is decoded, transformed and re-encoded before the next one is read, and
+     * only the last MCU row or so of each component is kept, so memory no longer grows with the image.
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /*
+     * In parallel mode the restart intervals of a scan are entropy-decoded, and later encoded again,
+     * concurrently on the common ForkJoinPool. Images without restart intervals are handled on one thread as before.
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
     public void recompress() throws IOException {
-        try (InputStream is = new BufferedInputStream(new FileInputStream(this.inputFileName));
-             OutputStream os = new BufferedOutputStream(new FileOutputStream(this.outputFileName))) {
-            this.is = is;
-
-            // SOI
-            checkState(this.readWord(2) == 0xffd8, "SOI not detected");
-            this.writeWord(os, 0xffd8, 2);
-
-            this.skipApplicationSpecificMarkers(os);
-            this.readQuantizationTables(os);
-            this.readFrameMarker(os);
-            this.readHuffmanTable(os);
-            this.readQuantizationTables(os);
-            this.readRestartIntervalMarker(os);
-            this.readScanTrunks(os);
-
-            // EOI
-            checkState(this.readWord(2) == 0xffd9, "EOI not detected");
-            this.writeWord(os, 0xffd9, 2);
-
-            this.printStatistics();
+        try (FileChannel channel = FileChannel.open(Paths.get(this.inputFileName), StandardOpenOption.READ);
+             FileOutputStream fos = new FileOutputStream(this.outputFileName);
+             OutputStream os = new BufferedOutputStream(fos)) {
+            this.inputChannel = channel;
+            this.outputChannel = fos.getChannel();
+            this.recompress(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), os);
+        } finally {
+            this.inputChannel = null;
+            this.outputChannel = null;
         }
     }
 
+    /*
+     * Recompresses a JPEG that is already in memory (a mapped file, a wrapped byte[], ...),
+     * from its position to its limit. The buffer's position is left untouched.
+     */
+    public void recompress(ByteBuffer input, OutputStream os) {
+        this.in = input.slice();
+        this.restartInterval = 0;
+        this.intervalEnds = new int[0];
+
+        // SOI
+        checkState(this.readWord(2) == 0xffd8, "SOI not detected");
+        this.writeWord(os, 0xffd8, 2);
+
+        this.writeApplicationSegments(os);
+        this.skipApplicationSpecificMarkers(os);
+        this.readQuantizationTables(os);
+        this.readFrameMarker(os);
+        this.readHuffmanTable(os);
+        this.readQuantizationTables(os);
+        this.readRestartIntervalMarker(os);
+        this.readScanTrunks(os);
+
+        // EOI
+        checkState(this.readWord(2) == 0xffd9, "EOI not detected");
+        this.writeWord(os, 0xffd9, 2);
+
+        this.printStatistics();
+    }
+
     private void printStatistics() {
-        double entropyDc0 = entropy(this.symbolFreqStats.get(this.getDc0()).values());
-        int symbolDc0 = this.symbolFreqStats.get(this.getDc0()).values().stream().mapToInt(f -> f).sum();
-        double entropyDc1 = entropy(this.symbolFreqStats.get(this.getDc1()).values());
-        int symbolDc1 = this.symbolFreqStats.get(this.getDc1()).values().stream().mapToInt(f -> f).sum();
+        int[] dc0 = this.statistics.symbolFreqStats.get(this.outputTable(this.getDc0()));
+        int[] dc1 = this.statistics.symbolFreqStats.get(this.outputTable(this.getDc1()));
+        double entropyDc0 = entropy(dc0), entropyDc1 = entropy(dc1);
+        int symbolDc0 = Arrays.stream(dc0).sum(), symbolDc1 = Arrays.stream(dc1).sum();
         double theoreticalDc = entropyDc0 * symbolDc0 + entropyDc1 * symbolDc1;
         System.out.printf("DC length: %d, theoretical limit %d; DC0 entropy %f symbol %d, DC1 entropy %f symbol %d\n",
-                this.dcValueBits / 8, (int) theoreticalDc / 8, entropyDc0, symbolDc0, entropyDc1, symbolDc1);
-        double entropyAc0 = entropy(this.symbolFreqStats.get(this.getAc0()).values());
-        int symbolAc0 = this.symbolFreqStats.get(this.getAc0()).values().stream().mapToInt(f -> f).sum();
-        double entropyAc1 = entropy(this.symbolFreqStats.get(this.getAc1()).values());
-        int symbolAc1 = this.symbolFreqStats.get(this.getAc1()).values().stream().mapToInt(f -> f).sum();
+                this.statistics.dcValueBits / 8, (int) theoreticalDc / 8, entropyDc0, symbolDc0, entropyDc1, symbolDc1);
+        int[] ac0 = this.statistics.symbolFreqStats.get(this.outputTable(this.getAc0()));
+        int[] ac1 = this.statistics.symbolFreqStats.get(this.outputTable(this.getAc1()));
+        double entropyAc0 = entropy(ac0), entropyAc1 = entropy(ac1);
+        int symbolAc0 = Arrays.stream(ac0).sum(), symbolAc1 = Arrays.stream(ac1).sum();
         double theoreticalAc = entropyAc0 * symbolAc0 + entropyAc1 * symbolAc1;
         System.out.printf("AC length: %d, theoretical limit %d; AC0 entropy %f symbol %d, AC1 entropy %f symbol %d\n",
-                this.acValueBits / 8, (int) theoreticalAc / 8, entropyAc0, symbolAc0, entropyAc1, symbolAc1);
-        System.out.printf("%d bytes read, %d bytes written\n", this.bytesRead, this.bytesWritten);
+                this.statistics.acValueBits / 8, (int) theoreticalAc / 8, entropyAc0, symbolAc0, entropyAc1, symbolAc1);
+        System.out.printf("%d bytes read, %d bytes written\n", this.in.position(), this.bytesWritten);
     }
 
     /*
@@ -87,43 +136,89 @@ public class Jpeg {
     private void skipApplicationSpecificMarkers(OutputStream os) {
         // TIFF, EXIF, etc.
         int marker;
-        while (((marker = this.readWord(2, 2)) & 0xfff0) == 0xffe0) {  // APPn
+        while (((marker = this.peekWord(2)) & 0xfff0) == 0xffe0) {  // APPn
+            int start = this.in.position();
+            this.skip(2);
             int length = this.readWord(2);
-            this.writeWord(os, marker, 2);
-            this.writeWord(os, length, 2);
-            this.copy(os, length - 2);
-//            System.out.printf("APP marker %x found [%d,%d]\n", marker & 0x1f, length, this.bytesRead);
+            if (!this.readApplicationSegment(marker, this.read(length - 2)))
+                this.passthrough(os, start);
+//            System.out.printf("APP marker %x found [%d,%d]\n", marker & 0x1f, length, this.in.position());
         }
-        this.rewind(2);
+    }
+
+    /*
+     * Lets subclasses put segments of their own right after SOI, e.g. to record how the file was coded.
+     */
+    protected void writeApplicationSegments(OutputStream os) {
+    }
+
+    /*
+     * Offers each APPn segment's payload to subclasses. Returning true drops the segment from the output,
+     * for segments that writeApplicationSegments added.
+     */
+    protected boolean readApplicationSegment(int marker, ByteBuffer payload) {
+        return false;
+    }
+
+    /*
+     * Writes an APPn segment with the given payload.
+     */
+    protected void writeApplicationSegment(OutputStream os, int marker, byte[] payload) {
+        checkArgument((marker & 0xfff0) == 0xffe0 && payload.length <= 0xfffd);
+        this.writeWord(os, marker, 2);
+        this.writeWord(os, payload.length + 2, 2);
+        this.write(os, ByteBuffer.wrap(payload));
+    }
+
+    /*
+     * Whether the table belongs to the luminance component, the others being shared by Cb and Cr.
+     */
+    protected boolean isLuminance(Huffman huffman) {
+        return huffman == this.dc0 || huffman == this.ac0
+                || huffman == this.outputTable(this.dc0) || huffman == this.outputTable(this.ac0);
+    }
+
+    /*
+     * The table to encode with in place of one read from DHT; subclasses that change tables write their DHT
+     * segments in writeHuffmanTables.
+     */
+    protected Huffman outputTable(Huffman huffman) {
+        return huffman;
+    }
+
+    /*
+     * Lets subclasses write DHT segments of their own where the first one is read. Returning true drops the
+     * segments read from the output.
+     */
+    protected boolean writeHuffmanTables(OutputStream os) {
+        return false;
     }
 
     private void readQuantizationTables(OutputStream os) {
-        while (this.readWord(2, 2) == 0xffdb) {  // DQT
+        while (this.peekWord(2) == 0xffdb) {  // DQT
+            int start = this.in.position();
+            this.skip(2);
             int length = this.readWord(2);
             checkState(length == 67 || length == 132, "Unrecognized Quantization Table");
-            this.writeWord(os, 0xffdb, 2);
-            this.writeWord(os, length, 2);
             for (int j = (length - 2) / 65; j > 0; j--) {
                 int id = this.readWord(1);
-                byte[] bytes = this.read(64);
+                ByteBuffer bytes = this.read(64);
                 int[] table = new int[64];
                 for (int i = 0; i < 64; i++)
-                    table[i] = bytes[i] & 0xff;
+                    table[i] = bytes.get(i) & 0xff;
                 if ((id & 0x01) == 0)
                     this.quantizationTable0 = table;
                 else
                     this.quantizationTable1 = table;
-                this.writeWord(os, id, 1);
-                this.write(os, bytes);
-//                System.out.printf("Quantization table %x found [65,%d]\n", id, this.bytesRead);
+//                System.out.printf("Quantization table %x found [65,%d]\n", id, this.in.position());
             }
+            this.passthrough(os, start);
         }
-        this.rewind(2);
     }
 
     private void readFrameMarker(OutputStream os) {
         // SOF0, pdf P35 B.2.2
-        checkState(this.readWord(2) == 0xffc0, "SOF0 not detected");
+        int marker = this.frameMarker(this.readWord(2));
         int length = this.readWord(2);
         int sample = this.readWord(1);
         int rows = this.readWord(2);
@@ -135,7 +230,7 @@ public class Jpeg {
         int cb = this.readWord(3);
         int cr = this.readWord(3);
         checkState(y == 0x012200 && cb == 0x021101 && cr == 0x031101, String.format("%x %x %x", y, cb, cr));
-        this.writeWord(os, 0xffc0, 2);
+        this.writeWord(os, marker, 2);
         this.writeWord(os, length, 2);
         this.writeWord(os, sample, 1);
         this.writeWord(os, rows, 2);
@@ -144,26 +239,50 @@ public class Jpeg {
         this.writeWord(os, y, 3);
         this.writeWord(os, cb, 3);
         this.writeWord(os, cr, 3);
-        System.out.printf("Image size %dx%d [%d]\n", rows, cols, this.bytesRead);
+        System.out.printf("Image size %dx%d [%d]\n", rows, cols, this.in.position());
+        this.allocatePlanes(rows, cols);
+    }
+
+    /*
+     * Returns the SOFn marker to write for the one read. Only baseline Huffman coding is read and written
+     * unless a subclass transcodes to or from another process, e.g. SOF9 for arithmetic coding.
+     */
+    protected int frameMarker(int marker) {
+        checkState(marker == 0xffc0, "SOF0 not detected");
+        return marker;
+    }
+
+    private void allocatePlanes(int rows, int cols) {
+        // 4:2:0, every MCU holds 4 Y blocks and 1 Cb, 1 Cr block
+        int mcusPerRow = (cols + 15) / 16;
+        this.mcus = mcusPerRow * ((rows + 15) / 16);
+        if (this.streaming) {
+            // enough to reach one MCU row back, into the previous scan trunk if need be
+            this.planeY = CoefficientPlane.window(4 * (mcusPerRow + 2));
+            this.planeCb = CoefficientPlane.window(mcusPerRow + 2);
+            this.planeCr = CoefficientPlane.window(mcusPerRow + 2);
+        } else {
+            this.planeY = CoefficientPlane.of(4 * this.mcus);
+            this.planeCb = CoefficientPlane.of(this.mcus);
+            this.planeCr = CoefficientPlane.of(this.mcus);
+        }
     }
 
     private void readHuffmanTable(OutputStream os) {
         // DHT, pdf P40 B.2.4.2
-        while (this.readWord(2, 2) == 0xffc4) {
+        boolean replaced = false;
+        while (this.peekWord(2) == 0xffc4) {
+            int start = this.in.position();
+            this.skip(2);
             int length = this.readWord(2);
-            if (os != null) {
-                this.writeWord(os, 0xffc4, 2);
-                this.writeWord(os, length, 2);
-            }
             int remaining = length - 2;
             while (remaining > 0) {
                 int id = this.readWord(1);
-                byte[] bytes = this.read(16);
                 int count = 0;
-                for (byte b : bytes)
-                    count += b & 0xff;
-                bytes = Arrays.copyOf(bytes, 16 + count);
-                System.arraycopy(this.read(count), 0, bytes, 16, count);
+                for (int i = 0; i < 16; i++)
+                    count += this.in.get(this.in.position() + i) & 0xff;
+                byte[] bytes = new byte[16 + count];
+                this.in.get(bytes);
                 remaining -= 17 + count;
                 Huffman huffman = new Huffman(bytes);
                 if ((id & 0xf0) == 0 && (id & 0x0f) == 0) {
@@ -180,64 +299,94 @@ public class Jpeg {
                     huffman.setName("AC1");
                 } else
                     throw new IllegalStateException("Huffman table id not supported");
-                if (os != null) {
-                    this.writeWord(os, id, 1);
-                    this.write(os, bytes);
-                }
 //                System.out.printf("Huffman table %s%d found [%d,%d]\n",
-//                        (id & 0x10) == 0 ? "DC" : "AC", id & 0x0f, bytes.length + 1, this.bytesRead);
+//                        (id & 0x10) == 0 ? "DC" : "AC", id & 0x0f, bytes.length + 1, this.in.position());
 //                System.out.println(huffman);
             }
             checkState(remaining == 0, "Unrecognized Huffman Table");
+            if (os != null && !replaced)
+                replaced = this.writeHuffmanTables(os);
+            if (os != null && !replaced)
+                this.passthrough(os, start);
         }
-        this.rewind(2);
     }
 
-    private Huffman getDc0() {
+    protected Huffman getDc0() {
         return this.dc0;
     }
 
-    private Huffman getDc1() {
+    protected Huffman getDc1() {
         return this.dc1;
     }
 
-    private Huffman getAc0() {
+    protected Huffman getAc0() {
         return this.ac0;
     }
 
-    private Huffman getAc1() {
+    protected Huffman getAc1() {
         return this.ac1;
     }
 
     private void readRestartIntervalMarker(OutputStream os) {
         // DRI, pdf P43 B.2.4.4
-        if (this.readWord(2, 2) == 0xffdd) {
+        if (this.peekWord(2) == 0xffdd) {
+            this.skip(2);
             checkState(this.readWord(2) == 4, "Restart interval segment length must be 4");
-            int restartInterval = this.readWord(2); // Specifies the number of MCU in the restart interval.
-//            System.out.printf("Restart interval %d [6,%d]\n", restartInterval, this.bytesRead);
+            this.restartInterval = this.readWord(2); // Specifies the number of MCU in the restart interval.
+//            System.out.printf("Restart interval %d [6,%d]\n", this.restartInterval, this.in.position());
             this.writeWord(os, 0xffdd, 2);
             this.writeWord(os, 4, 2);
-            this.writeWord(os, restartInterval, 2);
-        } else {
-            this.rewind(2);
+            this.writeWord(os, this.restartInterval, 2);
         }
     }
 
     private void readScanTrunks(OutputStream os) {
-        while (this.readScanMarker(os)) {
-            this.readScan();
-            this.depredictAndDequantize();
-            this.quantizeAndPredict();
-            this.writeScan(os);
-            this.componentY.clear();
-            this.componentCb.clear();
-            this.componentCr.clear();
+        // scans being encoded in the background, each followed by the marker written after it
+        List<ForkJoinTask<byte[]>> scans = new ArrayList<>();
+        List<ByteArrayOutputStream> markers = new ArrayList<>();
+        boolean first = true;
+        while (this.readScanMarker(markers.isEmpty() ? os : markers.get(markers.size() - 1))) {
+            this.startScanTrunk();
+            if (this.streaming) {
+                this.transcodeScan(os);
+            } else {
+                if (first && this.parallel && this.restartInterval > 0)
+                    this.decodeIntervals();
+                first = false;
+                this.readScan();
+                this.depredictAndDequantize();
+                this.trunkRestored();
+                if (this.intervalEnds.length > 0 && this.encodesIntervalsIndependently()) {
+                    scans.add(this.encodeScan());
+                    markers.add(new ByteArrayOutputStream());
+                } else {
+                    this.writeScan(os);
+                }
+            }
+        }
+        try {
+            for (int k = 0; k < scans.size(); k++) {
+                byte[] scan = scans.get(k).join();
+                os.write(scan);
+                this.bytesWritten += scan.length;
+                markers.get(k).writeTo(os);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
     }
 
+    private void startScanTrunk() {
+        this.planeY.startTrunk();
+        this.planeCb.startTrunk();
+        this.planeCr.startTrunk();
+    }
+
     private boolean readScanMarker(OutputStream os) {
-        int marker = this.readWord(2, 2);
+        this.readConditioningTables();
+        int marker = this.peekWord(2);
         if (marker == 0xffda) { // SOS, pdf P37 B.2.3
+            this.skip(2);
             int length = this.readWord(2);
             int components = this.readWord(1);
             checkState(components == 3, String.format("%s components not supported", components));
@@ -245,6 +394,7 @@ public class Jpeg {
             int cb = this.readWord(2);
             int cr = this.readWord(2);
             checkState(y == 0x0100 && cb == 0x0211 && cr == 0x0311);
+            this.writeScanSegments(os);
             this.writeWord(os, 0xffda, 2);
             this.writeWord(os, length, 2);
             this.writeWord(os, components, 1);
@@ -252,223 +402,422 @@ public class Jpeg {
             this.writeWord(os, cb, 2);
             this.writeWord(os, cr, 2);
             this.copy(os, 3);
-            System.out.printf("Read scan start [%d]\n", this.bytesRead);
+            System.out.printf("Read scan start [%d]\n", this.in.position());
             return true;
         } else if ((marker & 0xfff8) == 0xffd0) { // RST 0-7
+            this.skip(2);
             this.writeWord(os, marker, 2);
-//            System.out.printf("Read scan restart [2,%d]\n", this.bytesRead);
+//            System.out.printf("Read scan restart [2,%d]\n", this.in.position());
             return true;
         } else {
-            this.rewind(2);
             return false;
         }
     }
 
+    private void readConditioningTables() {
+        // DAC, pdf P42 B.2.4.3
+        while (this.peekWord(2) == 0xffcc) {
+            this.skip(2);
+            int length = this.readWord(2);
+            this.readConditioningTable(this.read(length - 2));
+        }
+    }
+
+    /*
+     * Offers the payload of each DAC segment to subclasses, which are to write their own if any.
+     */
+    protected void readConditioningTable(ByteBuffer payload) {
+        throw new IllegalStateException("Arithmetic conditioning table in a Huffman-coded image");
+    }
+
+    /*
+     * Lets subclasses put segments of their own right before SOS, e.g. arithmetic conditioning tables.
+     */
+    protected void writeScanSegments(OutputStream os) {
+    }
+
     protected void readScan() {
+        if (this.nextInterval < this.intervalEnds.length) {
+            // already decoded by decodeIntervals
+            int mcus = this.intervalMcus[this.nextInterval];
+            this.planeY.addAll(4 * mcus);
+            this.planeCb.addAll(mcus);
+            this.planeCr.addAll(mcus);
+            this.in.position(this.intervalEnds[this.nextInterval++]);
+            return;
+        }
 //        int startAt = this.bytesRead;
-        this.scanCurrent = this.nextByteInScan();
-        this.scanOffset = 0;
+        this.scanReader = new ScanBitReader(this.in);
+        this.beginScanRead();
+        try {
+            this.readMcus();
+        } finally {
+            this.scanReader.close();
+        }
+//        System.out.printf("Read scan end Y:Cb:Cr - %d:%d:%d [%d,%d]\n",
+//                this.planeY.size(), this.planeCb.size(), this.planeCr.size(),
+//                this.bytesRead - startAt, this.in.position());
+    }
+
+    private void readMcus() {
         try {
             while (true) {
                 for (int s = 0; s < 4; s++)
-                    this.componentY.add(this.readBlock(this.getDc0(), this.ac0));
-                this.componentCb.add(this.readBlock(this.getDc1(), this.ac1));
-                this.componentCr.add(this.readBlock(this.getDc1(), this.ac1));
+                    this.readBlock(this.planeY, this.getDc0(), this.ac0);
+                this.readBlock(this.planeCb, this.getDc1(), this.ac1);
+                this.readBlock(this.planeCr, this.getDc1(), this.ac1);
             }
         } catch (NoSuchElementException | Huffman.NotFoundException e) {
-            int mask = this.mask(8 - this.scanOffset);
-            if ((this.scanCurrent & mask) == mask) {
-//                System.out.printf("Read scan end Y:Cb:Cr - %d:%d:%d [%d,%d]\n",
-//                        this.componentY.size(), this.componentCb.size(), this.componentCr.size(),
-//                        this.bytesRead - startAt, this.bytesRead);
+            if (this.atScanEnd())
                 return;
-            }
             throw e;
         }
     }
 
-    private int[] readBlock(Huffman dcHuffman, Huffman acHuffman) {
-        int[] block = new int[64], zeroHolder = new int[1];
-        block[0] = this.readDcValue(dcHuffman);
+    /*
+     * Entropy-decodes all restart intervals of the scan at once, in parallel, straight into their
+     * place in the planes; readScan then only has to move past them. Their bounds are found by looking
+     * for RSTn markers, and as DC prediction starts over at every restart they need nothing from each
+     * other. Falls back to decoding one interval at a time when the intervals do not have the
+     * sizes that DRI and SOF0 imply.
+     */
+    private void decodeIntervals() {
+        this.intervalEnds = new int[0];
+        this.nextInterval = 0;
+        if (!this.decodesIntervalsIndependently())
+            return;
+        int[] ends = this.locateIntervals();
+        int n = ends.length;
+        if (n == 0 || (long) (n - 1) * this.restartInterval >= this.mcus
+                || this.mcus - (n - 1) * this.restartInterval > this.restartInterval)
+            return;
+        int[] mcus = ForkJoinPool.commonPool().submit(() -> IntStream.range(0, n).parallel()
+                .map(k -> this.decodeInterval(k == 0 ? this.in.position() : ends[k - 1] + 2, ends[k],
+                        k * this.restartInterval, Math.min(this.restartInterval, this.mcus - k * this.restartInterval)))
+                .toArray()).join();
+        if (Arrays.stream(mcus).anyMatch(m -> m < 0))
+            return;
+        this.intervalEnds = ends;
+        this.intervalMcus = mcus;
+    }
+
+    /*
+     * Positions of the markers ending each restart interval of the scan: RSTn markers, then whatever
+     * marker ends the scan.
+     */
+    private int[] locateIntervals() {
+        int[] ends = new int[16];
+        int n = 0;
+        ByteBuffer in = this.in;
+        for (int i = in.position(), limit = in.limit() - 1; i < limit; i++) {
+            if ((in.get(i) & 0xff) != 0xff)
+                continue;
+            int marker = in.get(i + 1) & 0xff;
+            if (marker == 0x00 || marker == 0xff)
+                continue;
+            if (n == ends.length)
+                ends = Arrays.copyOf(ends, n * 2);
+            ends[n++] = i;
+            if ((marker & 0xf8) != 0xd0)  // not RSTn
+                break;
+            i++;
+        }
+        return Arrays.copyOf(ends, n);
+    }
+
+    /*
+     * Decodes the interval between start and the marker at end into MCUs first to first + mcus - 1,
+     * returns mcus, or -1 if the interval does not hold exactly that many.
+     */
+    private int decodeInterval(int start, int end, int first, int mcus) {
+        ByteBuffer data = this.in.duplicate();
+        data.limit(end + 2);  // up to and including the marker, where the reader stops
+        data.position(start);
+        ScanBitReader reader = new ScanBitReader(data);
+        int[] zeroHolder = new int[1];
+        try {
+            for (int m = first; m < first + mcus; m++) {
+                for (int s = 0; s < 4; s++)
+                    this.readBlock(reader, this.planeY.coefficients, this.planeY.slot(4 * m + s), this.getDc0(),
+                            this.ac0, zeroHolder);
+                this.readBlock(reader, this.planeCb.coefficients, this.planeCb.slot(m), this.getDc1(), this.ac1,
+                        zeroHolder);
+                this.readBlock(reader, this.planeCr.coefficients, this.planeCr.slot(m), this.getDc1(), this.ac1,
+                        zeroHolder);
+            }
+        } catch (NoSuchElementException | IllegalStateException e) {  // including Huffman.NotFoundException
+            return -1;
+        }
+        return reader.atPadding() ? mcus : -1;
+    }
+
+    /*
+     * Whether restart intervals can be entropy-decoded independently, i.e. the decoder carries no
+     * state from one interval to the next.
+     */
+    protected boolean decodesIntervalsIndependently() {
+        return true;
+    }
+
+    /*
+     * Same for encoding. Subclasses overriding writeBitsInScan or encodeValueInRunningCategory
+     * must be safe to call from several threads at once, or return false.
+     */
+    protected boolean encodesIntervalsIndependently() {
+        return true;
+    }
+
+    protected void beginScanRead() {
+    }
+
+    /*
+     * Called when decoding runs into the end of the scan, to tell a clean end from a truncated block.
+     */
+    protected boolean atScanEnd() {
+        return this.scanReader.atPadding();
+    }
+
+    /*
+     * Reads the next block of the scan into the plane and returns its number.
+     */
+    private int readBlock(CoefficientPlane plane, Huffman dcHuffman, Huffman acHuffman) {
+        this.readBlock(this.scanReader, plane.coefficients, plane.next(), dcHuffman, acHuffman, this.zeroHolder);
+        return plane.add();
+    }
+
+    /*
+     * Reads a block into the 64 values of block starting at offset, which must be zero.
+     */
+    private void readBlock(ScanBitReader reader, int[] block, int offset, Huffman dcHuffman, Huffman acHuffman,
+                           int[] zeroHolder) {
+        block[offset] = this.readDcValue(reader, dcHuffman);
         int pos = 1;
         while (pos < 64) {
-            int symbol = this.readAcValue(acHuffman, zeroHolder);
+            int symbol = this.readAcValue(reader, acHuffman, zeroHolder);
             if (zeroHolder[0] == 0 && symbol == 0)  // EOB
                 break;
             pos += zeroHolder[0];
-            block[pos++] = symbol;
+            checkState(pos < 64, "AC run past the end of the block");
+            block[offset + pos++] = symbol;
         }
-        return block;
     }
 
-    protected int nextByteInScan() {
-        int b = this.readWord(1, 2);
-        if (b != 0xff)
-            return b;
-        int bb = this.readWord(1);
-        if (bb == 0x00)
-            return b;
-        this.rewind(2);
-        throw new NoSuchElementException();
+    protected int readDcValue(ScanBitReader reader, Huffman huffman) {
+        int symbol = this.readSymbol(reader, huffman);
+        return this.readValueInCategory(reader, symbol & 0x0f);
     }
 
-    protected int readDcValue(Huffman huffman) {
-        Huffman.Result res = huffman.findSymbol(this.scanCurrent, this.scanOffset, this::nextByteInScan);
-        this.scanCurrent = res.current;
-        this.scanOffset = res.offset;
-        return this.readValueInCategory(res.symbol & 0xff);
+    protected int readAcValue(ScanBitReader reader, Huffman huffman, int[] zeroHolder) {
+        int symbol = this.readSymbol(reader, huffman);
+        zeroHolder[0] = (symbol & 0xf0) >> 4;
+        return this.readValueInCategory(reader, symbol & 0x0f);
     }
 
-    protected int readAcValue(Huffman huffman, int[] zeroHolder) {
-        Huffman.Result res = huffman.findSymbol(this.scanCurrent, this.scanOffset, this::nextByteInScan);
-        zeroHolder[0] = (res.symbol & 0xf0) >> 4;
-        this.scanCurrent = res.current;
-        this.scanOffset = res.offset;
-        return this.readValueInCategory(res.symbol & 0x0f);
+    private int readSymbol(ScanBitReader reader, Huffman huffman) {
+        int entry = huffman.decode(reader.peek16());
+        if (entry < 0 && reader.available() >= 16)
+            throw new Huffman.NotFoundException(String.format("Unknown code %d, cannot be found in huffman table\n%s",
+                    reader.peek16(), huffman));
+        if (entry < 0)
+            throw new NoSuchElementException();
+        reader.skip(entry >> 8);
+        return entry & 0xff;
     }
 
-    private int readValueInCategory(int category) {
+    private int readValueInCategory(ScanBitReader reader, int category) {
         if (category == 0)
             return 0;
-        int bits = 8 - this.scanOffset;
-        int value = this.scanCurrent & this.mask(bits);
-        while (bits < category) {
-            this.scanCurrent = this.nextByteInScan();
-            bits += 8;
-            value = (value << 8) | this.scanCurrent;
-        }
-        this.scanOffset = (this.scanOffset + category) % 8;
-        if (this.scanOffset == 0)
-            this.scanCurrent = this.nextByteInScan();
-        int symbol = value >> (bits - category);
+        int symbol = reader.readBits(category);
         if ((symbol & (1 << (category - 1))) != 0)
             return symbol;
-        return 1 - (int) pow(2, category) + symbol;
+        return 1 - (1 << category) + symbol;
     }
 
-    protected void depredictAndDequantize() {
-        this.depredictAndDequantize(this.componentY, this.quantizationTable0);
-        this.depredictAndDequantize(this.componentCb, this.quantizationTable1);
-        this.depredictAndDequantize(this.componentCr, this.quantizationTable1);
+    private void depredictAndDequantize() {
+        for (int i = 0; i < this.planeY.size(); i++)
+            this.depredictAndDequantize(i, this.planeY, this.quantizationTable0, true);
+        for (int i = 0; i < this.planeCb.size(); i++)
+            this.depredictAndDequantize(i, this.planeCb, this.quantizationTable1, false);
+        for (int i = 0; i < this.planeCr.size(); i++)
+            this.depredictAndDequantize(i, this.planeCr, this.quantizationTable1, false);
     }
 
-    private void depredictAndDequantize(List<int[]> component, int[] table) {
-        int lastDcValue = 0;
-        for (int[] block : component) {
-            block[0] += lastDcValue;
-            lastDcValue = block[0];
-            for (int j = 0; j < 64; j++)
-                block[j] *= table[j];
-        }
+    /*
+     * Turns block i, as read from the scan, into dequantized coefficients in place. Blocks before i
+     * have already been restored.
+     */
+    protected void depredictAndDequantize(int i, CoefficientPlane plane, int[] table, boolean y) {
+        int[] coefficients = plane.coefficients;
+        int offset = plane.offset(i);
+        if (i > 0)
+            coefficients[offset] += coefficients[plane.offset(i - 1)] / table[0];
+        for (int j = 0; j < 64; j++)
+            coefficients[offset + j] *= table[j];
     }
 
-    protected void quantizeAndPredict() {
-        this.quantizeAndPredict(this.componentY, this.quantizationTable0);
-        this.quantizeAndPredict(this.componentCb, this.quantizationTable1);
-        this.quantizeAndPredict(this.componentCr, this.quantizationTable1);
+    /*
+     * Called once every block of the current scan trunk has been through depredictAndDequantize, before any of
+     * them is written, for work on the whole trunk at once. Not called in streaming mode.
+     */
+    protected void trunkRestored() {
     }
 
-    private void quantizeAndPredict(List<int[]> component, int[] table) {
-        int lastDcValue = 0;
-        for (int[] block : component) {
-            for (int j = 0; j < 64; j++)
-                block[j] /= table[j];
-            int temp = block[0];
-            block[0] -= lastDcValue;
-            lastDcValue = temp;
-        }
+    /*
+     * Writes what the scan should hold for block i into target, leaving the plane untouched
+     * so that later blocks can still be predicted from it.
+     */
+    protected void quantizeAndPredict(int i, CoefficientPlane plane, int[] table, boolean y, int[] target) {
+        int[] coefficients = plane.coefficients;
+        int offset = plane.offset(i);
+        for (int j = 0; j < 64; j++)
+            target[j] = coefficients[offset + j] / table[j];
+        if (i > 0)
+            target[0] -= coefficients[plane.offset(i - 1)] / table[0];
     }
 
     protected void writeScan(OutputStream os) {
 //        int startAt = this.bytesWritten;
-        this.scanCurrent = 0;
-        this.scanOffset = 0;
+        this.scanWriter.start(os);
+        this.beginScanWrite();
+        this.writeMcus(this.planeY, this.planeCb, this.planeCr, this.scanWriter, this.statistics, this.quantized);
+        this.endScanWrite();
+        this.bytesWritten += this.scanWriter.finish();
+//        System.out.printf("Write scan end [%d,%d]\n", this.bytesWritten - startAt, this.bytesWritten);
+    }
+
+    /*
+     * Encodes the current scan trunk on the common ForkJoinPool, into a buffer of its own. The trunk and the
+     * one before it are final by now, and the planes are only read through snapshots, so the main thread can
+     * go on with the next trunk meanwhile.
+     */
+    private ForkJoinTask<byte[]> encodeScan() {
+        CoefficientPlane y = this.planeY.snapshot(), cb = this.planeCb.snapshot(), cr = this.planeCr.snapshot();
+        return ForkJoinPool.commonPool().submit(() -> {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ScanBitWriter writer = new ScanBitWriter();
+            ScanStatistics statistics = new ScanStatistics();
+            writer.start(bytes);
+            this.writeMcus(y, cb, cr, writer, statistics, new int[64]);
+            writer.finish();
+            synchronized (this.statistics) {
+                this.statistics.add(statistics);
+            }
+            return bytes.toByteArray();
+        });
+    }
+
+    private void writeMcus(CoefficientPlane planeY, CoefficientPlane planeCb, CoefficientPlane planeCr,
+                           ScanBitWriter writer, ScanStatistics statistics, int[] quantized) {
         int i = 0, j = 0, k = 0;
-        while (i < this.componentY.size()) {
+        while (i < planeY.size()) {
             for (int s = 0; s < 4; s++)
-                this.writeBlock(os, this.componentY.get(i++), this.getDc0(), this.ac0);
-            this.writeBlock(os, this.componentCb.get(j++), this.getDc1(), this.ac1);
-            this.writeBlock(os, this.componentCr.get(k++), this.getDc1(), this.ac1);
+                this.writeBlock(i++, planeY, this.quantizationTable0, true, writer, statistics, quantized);
+            this.writeBlock(j++, planeCb, this.quantizationTable1, false, writer, statistics, quantized);
+            this.writeBlock(k++, planeCr, this.quantizationTable1, false, writer, statistics, quantized);
         }
-        if (this.scanOffset > 0)
-            this.writeByteInScan(os, 0xff & this.mask(8 - this.scanOffset), 8 - this.scanOffset);
-//        System.out.printf("Write scan end [%d,%d]\n", this.bytesWritten - startAt, this.bytesWritten);
     }
 
-    private void writeBlock(OutputStream os, int[] block, Huffman dcHuffman, Huffman acHuffman) {
-        int[] bitsHolder = new int[1];
-        int value = this.encodeDcValue(block[0], dcHuffman, bitsHolder);
-        this.writeByteInScan(os, value, bitsHolder[0]);
+    protected void beginScanWrite() {
+    }
+
+    protected void endScanWrite() {
+    }
+
+    /*
+     * Streaming counterpart of readScan, depredictAndDequantize and writeScan, one MCU at a time.
+     */
+    private void transcodeScan(OutputStream os) {
+        this.scanReader = new ScanBitReader(this.in);
+        this.beginScanRead();
+        this.scanWriter.start(os);
+        this.beginScanWrite();
+        int[] mcu = new int[6];
+        try {
+            while (true) {
+                for (int s = 0; s < 4; s++)
+                    mcu[s] = this.readBlock(this.planeY, this.getDc0(), this.ac0);
+                mcu[4] = this.readBlock(this.planeCb, this.getDc1(), this.ac1);
+                mcu[5] = this.readBlock(this.planeCr, this.getDc1(), this.ac1);
+                for (int s = 0; s < 4; s++)
+                    this.transcodeBlock(mcu[s], this.planeY, this.quantizationTable0, true);
+                this.transcodeBlock(mcu[4], this.planeCb, this.quantizationTable1, false);
+                this.transcodeBlock(mcu[5], this.planeCr, this.quantizationTable1, false);
+            }
+        } catch (NoSuchElementException | Huffman.NotFoundException e) {
+            if (!this.atScanEnd())
+                throw e;
+        } finally {
+            this.scanReader.close();
+        }
+        this.endScanWrite();
+        this.bytesWritten += this.scanWriter.finish();
+    }
+
+    private void transcodeBlock(int i, CoefficientPlane plane, int[] table, boolean y) {
+        this.depredictAndDequantize(i, plane, table, y);
+        this.writeBlock(i, plane, table, y, this.scanWriter, this.statistics, this.quantized);
+    }
+
+    private void writeBlock(int i, CoefficientPlane plane, int[] table, boolean y, ScanBitWriter writer,
+                            ScanStatistics statistics, int[] quantized) {
+        Huffman dcHuffman = this.outputTable(y ? this.getDc0() : this.getDc1());
+        Huffman acHuffman = this.outputTable(y ? this.ac0 : this.ac1);
+        this.quantizeAndPredict(i, plane, table, y, quantized);
+        this.writeBlock(quantized, dcHuffman, acHuffman, writer, statistics);
+    }
+
+    private void writeBlock(int[] block, Huffman dcHuffman, Huffman acHuffman, ScanBitWriter writer,
+                            ScanStatistics statistics) {
+        long code = this.encodeDcValue(block[0], dcHuffman, statistics);
+        this.writeBitsInScan(writer, (int) code, (int) (code >>> 32));
         int last = 0;
         for (int i = 1; i < 64; i++) {
             if (block[i] == 0)
                 continue;
             int zeros = i - last - 1;
             while (zeros >= 16) {
-                value = this.encodeAcValue(15, 0, acHuffman, bitsHolder);
-                this.writeByteInScan(os, value, bitsHolder[0]);
+                code = this.encodeAcValue(15, 0, acHuffman, statistics);
+                this.writeBitsInScan(writer, (int) code, (int) (code >>> 32));
                 zeros -= 16;
             }
-            value = this.encodeAcValue(zeros, block[i], acHuffman, bitsHolder);
-            this.writeByteInScan(os, value, bitsHolder[0]);
+            code = this.encodeAcValue(zeros, block[i], acHuffman, statistics);
+            this.writeBitsInScan(writer, (int) code, (int) (code >>> 32));
             last = i;
         }
         if (last < 63) {
-            value = this.encodeAcValue(0, 0, acHuffman, bitsHolder);
-            this.writeByteInScan(os, value, bitsHolder[0]);
+            code = this.encodeAcValue(0, 0, acHuffman, statistics);
+            this.writeBitsInScan(writer, (int) code, (int) (code >>> 32));
         }
     }
 
-    protected void writeByteInScan(OutputStream os, int value, int bits) {
-        checkState((value & ~this.mask(bits)) == 0);
-        if (bits > 24) {
-            this.writeByteInScan(os, (value & ~this.mask(bits - 24)) >> (bits - 24), 24);
-            value &= this.mask(bits - 24);
-            bits -= 24;
-        }
-        this.scanCurrent = (this.scanCurrent << bits) | value;
-        this.scanOffset += bits;
-        while (this.scanOffset >= 8) {
-            bits = this.scanOffset - 8;
-            value = (this.scanCurrent & ~this.mask(bits)) >> bits;
-            this.writeWord(os, value, 1);
-            if (value == 0xff)
-                this.writeWord(os, 0x00, 1);
-            this.scanCurrent &= this.mask(bits);
-            this.scanOffset -= 8;
-        }
+    protected void writeBitsInScan(ScanBitWriter writer, int value, int bits) {
+        writer.writeBits(value, bits);
     }
 
-    private int encodeDcValue(int symbol, Huffman huffman, int[] bitsHolder) {
-        int value = this.encodeValueInRunningCategory(0, symbol, 11, huffman, bitsHolder);
-        this.dcValueBits += bitsHolder[0];
-        return value;
+    private long encodeDcValue(int symbol, Huffman huffman, ScanStatistics statistics) {
+        long code = this.encodeValueInRunningCategory(0, symbol, 11, huffman, statistics);
+        statistics.dcValueBits += code >>> 32;
+        return code;
     }
 
-    private int encodeAcValue(int zeros, int symbol, Huffman huffman, int[] bitsHolder) {
-        int value = this.encodeValueInRunningCategory(zeros, symbol, 10, huffman, bitsHolder);
-        this.acValueBits += bitsHolder[0];
-        return value;
+    private long encodeAcValue(int zeros, int symbol, Huffman huffman, ScanStatistics statistics) {
+        long code = this.encodeValueInRunningCategory(zeros, symbol, 10, huffman, statistics);
+        statistics.acValueBits += code >>> 32;
+        return code;
     }
 
-    protected int encodeValueInRunningCategory(int zeros, int symbol, int maxCategory, Huffman huffman, int[] bitsHolder) {
+    /*
+     * Returns (length << 32) | bits, see Huffman.encode
+     */
+    protected long encodeValueInRunningCategory(int zeros, int symbol, int maxCategory, Huffman huffman,
+                                                ScanStatistics statistics) {
         int sym = (zeros << (maxCategory + 1)) | (abs(symbol) & this.mask(maxCategory));
         if (symbol < 0)
             sym |= (1 << maxCategory);
-        this.symbolFreqStats.computeIfAbsent(huffman, h -> new HashMap<>())
-                .compute(sym, (s, c) -> c != null ? c + 1 : 1);
-        int absSymbol = abs(symbol);
-        for (int i = 0; i <= maxCategory; i++) {
-            if (absSymbol < (int) pow(2, i)) {
-                int category = (zeros << 4) | i;
-                int code = huffman.findCode((byte) category, bitsHolder);
-                bitsHolder[0] += i;
-                if (symbol < 0)
-                    symbol += (int) pow(2, i) - 1;
-                return (code << i) | symbol;
-            }
-        }
-        throw new IllegalStateException(String.format("Unexpected DC/AC value %d:%d", zeros, symbol));
+        statistics.count(huffman, sym);
+        if ((abs(symbol) >> maxCategory) != 0)
+            throw new IllegalStateException(String.format("Unexpected DC/AC value %d:%d", zeros, symbol));
+        return huffman.encode(zeros, symbol);
     }
 
     /*
@@ -477,66 +826,81 @@ public class Jpeg {
      * --------------------
      */
 
-    private byte[] read(int n) {
-        try {
-            byte[] bytes = new byte[n];
-            checkState(this.is.read(bytes) == n);
-            this.bytesRead += n;
-            return bytes;
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+    /*
+     * Returns the next n bytes as a view on the input, without copying.
+     */
+    private ByteBuffer read(int n) {
+        ByteBuffer slice = this.in.slice();
+        slice.limit(n);
+        this.skip(n);
+        return slice;
     }
 
-    private void write(OutputStream os, byte[] bytes) {
+    private void write(OutputStream os, ByteBuffer bytes) {
         try {
-            os.write(bytes);
-            this.bytesWritten += bytes.length;
+            int n = bytes.remaining();
+            if (bytes.hasArray()) {
+                os.write(bytes.array(), bytes.arrayOffset() + bytes.position(), n);
+            } else {
+                for (int i = 0; i < n; i += this.copyBuffer.length) {
+                    int length = Math.min(this.copyBuffer.length, n - i);
+                    bytes.get(this.copyBuffer, 0, length);
+                    os.write(this.copyBuffer, 0, length);
+                }
+            }
+            this.bytesWritten += n;
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
     private void copy(OutputStream os, int n) {
+        this.write(os, this.read(n));
+    }
+
+    /*
+     * Sends the input from start up to the current position to the output unchanged. When both ends are
+     * files, large segments (EXIF, ICC, MakerNote, ...) go through FileChannel.transferTo and never reach
+     * the heap; smaller ones are cheaper to append to the buffered stream.
+     */
+    private void passthrough(OutputStream os, int start) {
+        int n = this.in.position() - start;
+        if (this.inputChannel == null || this.outputChannel == null || n < this.copyBuffer.length) {
+            ByteBuffer segment = this.in.duplicate();
+            segment.limit(this.in.position());
+            segment.position(start);
+            this.write(os, segment);
+            return;
+        }
         try {
-            byte[] bytes = new byte[n];
-            checkState(this.is.read(bytes) == n);
-            os.write(bytes);
-            this.bytesRead += n;
+            os.flush();
+            for (long position = start, end = start + n; position < end; )
+                position += this.inputChannel.transferTo(position, end - position, this.outputChannel);
             this.bytesWritten += n;
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
-    protected void rewind(int n) {
-        try {
-            this.is.reset();
-            this.bytesRead -= n;
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+    protected void skip(int n) {
+        this.in.position(this.in.position() + n);
     }
 
     protected int readWord(int n) {
-        return this.readWord(n, 0);
+        int word = this.peekWord(n);
+        this.skip(n);
+        return word;
     }
 
-    protected int readWord(int n, int mark) {
-        try {
-            checkArgument(n <= 4 && n > 0);
-            if (mark > 0)
-                this.is.mark(mark);
-            byte[] bytes = new byte[n];
-            checkState(this.is.read(bytes) == n);
-            int word = 0;
-            for (int i = 0; i < n; i++)
-                word |= (bytes[i] & 0xff) << (n - i - 1) * 8;
-            this.bytesRead += n;
-            return word;
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+    /*
+     * Reads n bytes big-endian without moving the position, e.g. to look at the next marker.
+     */
+    protected int peekWord(int n) {
+        checkArgument(n <= 4 && n > 0);
+        int position = this.in.position(), word = 0;
+        for (int i = 0; i < n; i++)
+            word = (word << 8) | (this.in.get(position + i) & 0xff);
+        return word;
     }
 
     protected void writeWord(OutputStream os, int word, int n) {
@@ -552,12 +916,12 @@ public class Jpeg {
 
     protected int mask(int lsb) {
         checkArgument(lsb >= 0 && lsb <= 30);
-        return (int) pow(2, lsb) - 1;
+        return (1 << lsb) - 1;
     }
 
-    private double entropy(Collection<Integer> frequencies) {
-        int sum = frequencies.stream().mapToInt(f -> f).sum();
-        return frequencies.stream().mapToInt(f -> f)
+    private double entropy(int[] frequencies) {
+        int sum = Arrays.stream(frequencies).sum();
+        return Arrays.stream(frequencies)
                 .filter(f -> f > 0)
                 .mapToDouble(f -> 1.0 * f / sum * Math.log(1.0 * sum / f) / Math.log(2))
                 .sum();
@@ -1,57 +1,113 @@
-import arithmetic.*;
-
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.HashMap;
-import java.util.NoSuchElementException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 import static java.lang.Math.abs;
+import static preconditions.Preconditions.checkArgument;
 
 class JpegArithEncoder extends Jpeg {
-    protected final FrequencyTable freqs;
-    protected ArithmeticEncoder arithmeticEncoder;
+    protected ArithModel model = new LiteralModel();
+    protected int coder = JpegArith.ARITHMETIC;
+    protected int prior = Prior.NONE;
+    protected int rescaleBits = JpegArith.DEFAULT_RESCALE;
 
     public JpegArithEncoder(String inputFileName, String outputFileName) {
         super(inputFileName, outputFileName);
-        this.freqs = new SimpleFrequencyTable(new FlatFrequencyTable(32769));
+    }
+
+    /*
+     * Selects the model, see ArithModel. Anything but the literal model is recorded in an APP segment.
+     */
+    public void setModel(int id) {
+        this.model = ArithModel.create(id);
+    }
+
+    /*
+     * Selects the coder the model's symbols go through, JpegArith.ARITHMETIC, RANGE or RANS.
+     * Anything but the arithmetic coder is recorded in an APP segment too. The binary model has a coder of its own.
+     */
+    public void setCoder(int coder) {
+        this.coder = coder;
+    }
+
+    /*
+     * Starts the model from a trained prior, see Prior. The ID goes into the APP segment as well.
+     */
+    public void setPrior(int id) {
+        this.prior = id;
+    }
+
+    /*
+     * Makes the model halve its counts once a table's total passes 2^bits, so that it keeps following the statistics
+     * of large images, see DecayingFrequencyTable. Recorded in the APP segment as well.
+     */
+    public void setRescaleBits(int bits) {
+        checkArgument(bits == JpegArith.DEFAULT_RESCALE || bits >= 17 && bits <= 29);
+        this.rescaleBits = bits;
+    }
+
+    @Override
+    public void recompress(ByteBuffer input, OutputStream os) {
+        if (this.rescaleBits != JpegArith.DEFAULT_RESCALE)
+            this.model.setRescaleLimit(1 << this.rescaleBits);
+        if (this.prior != Prior.NONE)
+            this.model.startFrom(Prior.load(this.prior, this.model.id()).tables);
+        super.recompress(input, os);
+        this.model.printCosts();
+    }
+
+    @Override
+    protected void writeApplicationSegments(OutputStream os) {
+        if (this.model.id() != ArithModel.LITERAL || this.coder != JpegArith.ARITHMETIC || this.prior != Prior.NONE
+                || this.rescaleBits != JpegArith.DEFAULT_RESCALE)
+            this.writeApplicationSegment(os, JpegArith.MARKER,
+                    JpegArith.header(this.model.id(), this.coder, this.prior, this.rescaleBits));
     }
 
     @Override
-    protected void writeScan(OutputStream os) {
-        BitOutputStream output = new BitOutputStream(new OutputStream() {
+    protected boolean encodesIntervalsIndependently() {
+        return false;  // the model keeps adapting across intervals
+    }
+
+    @Override
+    protected void beginScanWrite() {
+        OutputStream scan = new OutputStream() {
             @Override
             public void write(int b) {
-                writeWord(os, b, 1);
-                if (b == 0xff)
-                    writeWord(os, 0x00, 1);
+                scanWriter.writeBits(b & 0xff, 8);  // the high bits are to be ignored
             }
-        });
-        this.arithmeticEncoder = new ArithmeticEncoder(32, output);
-        super.writeScan(os);
+        };
+        this.model.beginWrite(scan, this.coder);
+    }
+
+    @Override
+    protected void endScanWrite() {
         try {
-            this.arithmeticEncoder.write(freqs, 32768);  // EOF
-            this.arithmeticEncoder.finish();
-            output.close();
+            this.model.endWrite();
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
     @Override
-    protected void writeByteInScan(OutputStream os, int value, int bits) {
+    protected void writeBitsInScan(ScanBitWriter writer, int value, int bits) {
     }
 
     @Override
-    protected int encodeValueInRunningCategory(int zeros, int symbol, int maxCategory, Huffman huffman, int[] bitsHolder) {
+    protected long encodeValueInRunningCategory(int zeros, int symbol, int maxCategory, Huffman huffman,
+                                                ScanStatistics statistics) {
         try {
             int sym = (zeros << (maxCategory + 1)) | (abs(symbol) & this.mask(maxCategory));
             if (symbol < 0)
                 sym |= (1 << maxCategory);
-            this.arithmeticEncoder.write(this.freqs, sym);
-            this.freqs.increment(sym);
-            this.symbolFreqStats.computeIfAbsent(huffman, h -> new HashMap<>())
-                    .compute(sym, (s, c) -> c != null ? c + 1 : 1);
+            if (maxCategory == 11)
+                this.model.writeDc(this.isLuminance(huffman), symbol);
+            else
+                this.model.writeAc(this.isLuminance(huffman), zeros, symbol);
+            statistics.count(huffman, sym);
             return 0;
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -60,65 +116,63 @@ class JpegArithEncoder extends Jpeg {
 }
 
 class JpegArithDecoder extends Jpeg {
-    protected final FrequencyTable freqs;
-    protected ArithmeticDecoder arithmeticDecoder;
+    protected ArithModel model = new LiteralModel();
+    protected int coder = JpegArith.ARITHMETIC;
 
     public JpegArithDecoder(String inputFileName, String outputFileName) {
         super(inputFileName, outputFileName);
-        this.freqs = new SimpleFrequencyTable(new FlatFrequencyTable(32769));
     }
 
     @Override
-    protected void readScan() {
+    protected boolean readApplicationSegment(int marker, ByteBuffer payload) {
+        int[] header = JpegArith.parseHeader(marker, payload);
+        if (header == null)
+            return false;
+        this.model = ArithModel.create(header[0]);
+        this.coder = header[1];
+        if (header[3] != JpegArith.DEFAULT_RESCALE)
+            this.model.setRescaleLimit(1 << header[3]);
+        if (header[2] != Prior.NONE)
+            this.model.startFrom(Prior.load(header[2], header[0]).tables);
+        return true;
+    }
+
+    @Override
+    protected void beginScanRead() {
         try {
-            this.arithmeticDecoder = new ArithmeticDecoder(32, new BitInputStream(new InputStream() {
+            InputStream scan = new InputStream() {
                 @Override
                 public int read() {
-                    int b = readWord(1, 2);
-                    if (b != 0xff)
-                        return b;
-                    int bb = readWord(1);
-                    if (bb == 0x00)
-                        return b;
-                    rewind(2);
-                    return -1;
+                    return scanReader.nextByte();
                 }
-            }));
+            };
+            this.model.beginRead(scan, this.coder);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        try {
-            super.readScan();
-        } catch (NoSuchElementException e) {
-            return;
-        }
     }
 
     @Override
-    protected int nextByteInScan() {
-        return 0;
+    protected boolean atScanEnd() {
+        return true;  // the EOF symbol ends the scan
     }
 
-    protected int readDcValue(Huffman huffman) {
+    @Override
+    protected boolean decodesIntervalsIndependently() {
+        return false;  // the model keeps adapting across intervals
+    }
+
+    protected int readDcValue(ScanBitReader reader, Huffman huffman) {
         try {
-            int sym = this.arithmeticDecoder.read(this.freqs);
-            if (sym == 32768) // EOF
-                throw new NoSuchElementException();
-            this.freqs.increment(sym);
-            return ((sym & 0x800) != 0) ? -(sym & 0x7ff) : (sym & 0x7ff);
+            return this.model.readDc(this.isLuminance(huffman));
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
-    protected int readAcValue(Huffman huffman, int[] zeroHolder) {
+    protected int readAcValue(ScanBitReader reader, Huffman huffman, int[] zeroHolder) {
         try {
-            int sym = this.arithmeticDecoder.read(this.freqs);
-            if (sym == 32768) // EOF
-                throw new NoSuchElementException();
-            this.freqs.increment(sym);
-            zeroHolder[0] = (sym >> 11) & 0xf;
-            return ((sym & 0x400) != 0) ? -(sym & 0x3ff) : (sym & 0x3ff);
+            return this.model.readAc(this.isLuminance(huffman), zeroHolder);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -126,10 +180,79 @@ class JpegArithDecoder extends Jpeg {
 }
 
 class JpegArith {
+    // coders
+    static final int ARITHMETIC = 0;  // arithmetic.ArithmeticEncoder, bit by bit
+    static final int RANGE = 1;  // arithmetic.RangeEncoder, byte by byte
+    static final int RANS = 2;  // arithmetic.RansEncoder, static tables per scan written ahead of the symbols
+
+    // the model's own limit on table totals, see SymbolModel.DEFAULT_LIMIT
+    static final int DEFAULT_RESCALE = 0;
+
+    // APP15 segment recording the model, the coder, the prior and where tables are rescaled, absent for the literal
+    // model and the arithmetic coder with neither a prior nor a rescale limit
+    static final int MARKER = 0xffef;
+    private static final byte[] IDENTIFIER = "JPA\0".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+
+    static int parseCoder(String name) {
+        switch (name) {
+            case "arithmetic":
+                return ARITHMETIC;
+            case "range":
+                return RANGE;
+            case "rans":
+                return RANS;
+            default:
+                throw new IllegalArgumentException(String.format("Unknown coder %s", name));
+        }
+    }
+
+    static byte[] header(int model, int coder, int prior, int rescaleBits) {
+        byte[] header = Arrays.copyOf(IDENTIFIER, IDENTIFIER.length + 5);
+        header[IDENTIFIER.length] = VERSION;
+        header[IDENTIFIER.length + 1] = (byte) model;
+        header[IDENTIFIER.length + 2] = (byte) coder;
+        header[IDENTIFIER.length + 3] = (byte) prior;
+        header[IDENTIFIER.length + 4] = (byte) rescaleBits;
+        return header;
+    }
+
+    /*
+     * Returns {model, coder, prior, rescale bits} as recorded in an APP segment written by header(), or null if the
+     * segment is another one. Fields missing from older segments have their defaults.
+     */
+    static int[] parseHeader(int marker, ByteBuffer payload) {
+        if (marker != MARKER || payload.remaining() < IDENTIFIER.length + 2)
+            return null;
+        for (int i = 0; i < IDENTIFIER.length; i++)
+            if (payload.get(i) != IDENTIFIER[i])
+                return null;
+        int version = payload.get(IDENTIFIER.length) & 0xff;
+        if (version != VERSION)
+            throw new IllegalStateException(String.format("Arithmetic stream version %d not supported", version));
+        int model = payload.get(IDENTIFIER.length + 1) & 0xff;
+        int coder = payload.remaining() > IDENTIFIER.length + 2 ? payload.get(IDENTIFIER.length + 2) & 0xff : ARITHMETIC;
+        if (coder != ARITHMETIC && coder != RANGE && coder != RANS)
+            throw new IllegalStateException(String.format("Unknown coder %d", coder));
+        int prior = payload.remaining() > IDENTIFIER.length + 3 ? payload.get(IDENTIFIER.length + 3) & 0xff : Prior.NONE;
+        int rescaleBits = payload.remaining() > IDENTIFIER.length + 4
+                ? payload.get(IDENTIFIER.length + 4) & 0xff : DEFAULT_RESCALE;
+        if (rescaleBits != DEFAULT_RESCALE && (rescaleBits < 17 || rescaleBits > 29))
+            throw new IllegalStateException(String.format("Rescale limit 2^%d not supported", rescaleBits));
+        return new int[]{model, coder, prior, rescaleBits};
+    }
+
     public static void main(String[] args) throws IOException {
         String file = "images/VEll6n1SaRHUyAiMHpg7tA.jpg";
         String jpp = file.replaceAll("[.].+?$", ".jpp");
-        new JpegArithEncoder(file, jpp).recompress();
+        JpegArithEncoder encoder = new JpegArithEncoder(file, jpp);
+        if (args.length > 0)
+            encoder.setModel(ArithModel.parse(args[0]));
+        if (args.length > 1)
+            encoder.setCoder(parseCoder(args[1]));
+        if (args.length > 2)
+            encoder.setPrior(Integer.parseInt(args[2]));
+        encoder.recompress();
         new JpegArithDecoder(jpp, file.replaceAll("[.].+?$", ".out.jpg")).recompress();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,105 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/*
+ * Rewrites the image with the Huffman tables that suit it best, like jpegtran -optimize: a first pass counts the
+ * symbols every table codes, and the second writes tables built from those counts, pdf P145 K.2, and the scan
+ * coded with them. The coefficients are left as they are, so any decoder shows the same image.
+ */
+class JpegOptimizer extends Jpeg {
+    // counts the symbols, on an instance of its own as nothing of it goes to the output file
+    private final Jpeg firstPass = new Jpeg(null, null);
+    private Huffman[] tables;  // DC0, DC1, AC0, AC1
+
+    public JpegOptimizer(String inputFileName, String outputFileName) {
+        super(inputFileName, outputFileName);
+    }
+
+    @Override
+    public void setStreaming(boolean streaming) {
+        super.setStreaming(streaming);
+        this.firstPass.setStreaming(streaming);
+    }
+
+    @Override
+    public void setParallel(boolean parallel) {
+        super.setParallel(parallel);
+        this.firstPass.setParallel(parallel);
+    }
+
+    @Override
+    public void recompress(ByteBuffer input, OutputStream os) {
+        this.firstPass.recompress(input, new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+        Map<Huffman, int[]> counts = this.firstPass.statistics.symbolFreqStats;
+        this.tables = new Huffman[]{
+                optimalTable(this.firstPass.getDc0(), counts, 11), optimalTable(this.firstPass.getDc1(), counts, 11),
+                optimalTable(this.firstPass.getAc0(), counts, 10), optimalTable(this.firstPass.getAc1(), counts, 10)};
+        super.recompress(input, os);
+    }
+
+    @Override
+    protected Huffman outputTable(Huffman huffman) {
+        if (this.tables == null)
+            return huffman;
+        if (huffman == this.getDc0())
+            return this.tables[0];
+        if (huffman == this.getDc1())
+            return this.tables[1];
+        if (huffman == this.getAc0())
+            return this.tables[2];
+        if (huffman == this.getAc1())
+            return this.tables[3];
+        return huffman;
+    }
+
+    @Override
+    protected boolean writeHuffmanTables(OutputStream os) {
+        // all four tables in one DHT segment, pdf P40 B.2.4.2
+        int[] ids = {0x00, 0x01, 0x10, 0x11};
+        int length = 2;
+        for (Huffman table : this.tables)
+            length += 1 + table.getBytes().length;
+        this.writeWord(os, 0xffc4, 2);
+        this.writeWord(os, length, 2);
+        for (int t = 0; t < 4; t++) {
+            this.writeWord(os, ids[t], 1);
+            for (byte b : this.tables[t].getBytes())
+                this.writeWord(os, b & 0xff, 1);
+        }
+        return true;
+    }
+
+    /*
+     * The table for what the first pass counted with the original one. The counts are kept as in
+     * encodeValueInRunningCategory, zeros and signed value, and are turned back into run/category symbols here.
+     */
+    private static Huffman optimalTable(Huffman original, Map<Huffman, int[]> counts, int maxCategory) {
+        int[] values = counts.get(original);
+        if (values == null)
+            return original;
+        int[] frequencies = new int[256];
+        for (int sym = 0; sym < values.length; sym++) {
+            int zeros = sym >> (maxCategory + 1);
+            int magnitude = sym & ((1 << maxCategory) - 1);
+            frequencies[(zeros << 4) | (32 - Integer.numberOfLeadingZeros(magnitude))] += values[sym];
+        }
+        Huffman huffman = new Huffman(frequencies);
+        huffman.setName(original.getName());
+        return huffman;
+    }
+
+    public static void main(String[] args) throws IOException {
+        String file = "images/VEll6n1SaRHUyAiMHpg7tA.jpg";
+        new JpegOptimizer(file, file.replaceAll("[.].+?$", ".opt.jpg")).recompress();
+    }
+}
@@ -0,0 +1,413 @@
+import arithmetic.QmDecoder;
+import arithmetic.QmEncoder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+import static java.lang.Math.abs;
+import static preconditions.Preconditions.checkState;
+
+/*
+ * Transcodes the Huffman-coded scan into standard arithmetic coding, ITU-T T.81 Annex D and F.1.4: the frame header
+ * becomes SOF9 and DAC segments are put in front of SOS, so any decoder with arithmetic support reads the output.
+ * The DHT segments are kept, which T.81 allows, so that JpegQmDecoder can restore the original file.
+ */
+class JpegQmEncoder extends Jpeg {
+    private final JpegQm qm = new JpegQm();
+    private QmEncoder encoder;
+
+    public JpegQmEncoder(String inputFileName, String outputFileName) {
+        super(inputFileName, outputFileName);
+    }
+
+    @Override
+    protected int frameMarker(int marker) {
+        super.frameMarker(marker);
+        return JpegQm.SOF9;
+    }
+
+    @Override
+    protected void writeScanSegments(OutputStream os) {
+        byte[] payload = this.qm.conditioningTables();
+        this.writeWord(os, JpegQm.DAC, 2);
+        this.writeWord(os, payload.length + 2, 2);
+        for (byte b : payload)
+            this.writeWord(os, b & 0xff, 1);
+    }
+
+    @Override
+    protected boolean encodesIntervalsIndependently() {
+        return false;  // one coder for the whole scan
+    }
+
+    @Override
+    protected void beginScanWrite() {
+        // every restart interval starts over with fresh statistics, F.1.4.4.1.3 and F.1.4.4.2.2
+        this.qm.reset();
+        this.encoder = new QmEncoder(new OutputStream() {
+            @Override
+            public void write(int b) {
+                scanWriter.writeBits(b & 0xff, 8);  // stuffs 0xFF bytes, as D.1.6 asks
+            }
+        });
+    }
+
+    @Override
+    protected void endScanWrite() {
+        try {
+            this.encoder.finish();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    protected void writeBitsInScan(ScanBitWriter writer, int value, int bits) {
+    }
+
+    @Override
+    protected long encodeValueInRunningCategory(int zeros, int symbol, int maxCategory, Huffman huffman,
+                                                ScanStatistics statistics) {
+        try {
+            int sym = (zeros << (maxCategory + 1)) | (abs(symbol) & this.mask(maxCategory));
+            if (symbol < 0)
+                sym |= (1 << maxCategory);
+            if (maxCategory == 11)
+                this.encodeDc(symbol);
+            else
+                this.encodeAc(this.isLuminance(huffman) ? 0 : 1, zeros, symbol);
+            statistics.count(huffman, sym);
+            return 0;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /*
+     * Encode_DC_DIFF, Figure F.4, with the value coded as in Figures F.6 to F.9.
+     */
+    private void encodeDc(int diff) throws IOException {
+        int component = JpegQm.component(this.qm.block++), table = component == 0 ? 0 : 1;
+        byte[] states = this.qm.dcStates[table];
+        int s = this.qm.dcContext[component];
+        this.qm.position = 1;
+        this.qm.zeros = 0;
+        if (diff == 0) {
+            this.encoder.encode(states, s, 0);
+            this.qm.dcContext[component] = 0;
+            return;
+        }
+        this.encoder.encode(states, s, 1);
+        int sign = diff < 0 ? 1 : 0;
+        this.encoder.encode(states, s + 1, sign);
+        s += 2 + sign;
+        int magnitude = abs(diff) - 1;
+        int m = 0;
+        if (magnitude != 0) {
+            this.encoder.encode(states, s, 1);
+            m = 1;
+            s = 20;
+            for (int rest = magnitude >> 1; rest != 0; rest >>= 1) {
+                this.encoder.encode(states, s++, 1);
+                m <<= 1;
+            }
+        }
+        this.encoder.encode(states, s, 0);
+        this.qm.dcContext[component] = this.qm.dcContext(table, m, sign);
+        s += 14;
+        while ((m >>= 1) != 0)
+            this.encoder.encode(states, s, (magnitude & m) != 0 ? 1 : 0);
+    }
+
+    /*
+     * Encode_AC_Coefficients, Figure F.5, one run and value at a time. ZRLs only add to the run in front of the
+     * next value, and EOB is the end-of-block decision at the current position.
+     */
+    private void encodeAc(int table, int zeros, int value) throws IOException {
+        byte[] states = this.qm.acStates[table];
+        int k = this.qm.position;
+        if (value == 0 && zeros == 15) {  // ZRL
+            this.qm.zeros += 16;
+            return;
+        }
+        if (value == 0) {  // EOB
+            this.encoder.encode(states, 3 * (k - 1), 1);
+            return;
+        }
+        int s = 3 * (k - 1);
+        this.encoder.encode(states, s, 0);
+        for (int run = this.qm.zeros + zeros; run > 0; run--) {
+            this.encoder.encode(states, s + 1, 0);
+            s += 3;
+            k++;
+        }
+        this.qm.zeros = 0;
+        this.encoder.encode(states, s + 1, 1);
+        this.encoder.encode(this.qm.fixed, 0, value < 0 ? 1 : 0);
+        s += 2;
+        int magnitude = abs(value) - 1;
+        int m = 0;
+        if (magnitude != 0) {
+            this.encoder.encode(states, s, 1);
+            m = 1;
+            int rest = magnitude >> 1;
+            if (rest != 0) {
+                this.encoder.encode(states, s, 1);
+                m <<= 1;
+                s = k <= this.qm.acThreshold[table] ? 189 : 217;
+                while ((rest >>= 1) != 0) {
+                    this.encoder.encode(states, s++, 1);
+                    m <<= 1;
+                }
+            }
+        }
+        this.encoder.encode(states, s, 0);
+        s += 14;
+        while ((m >>= 1) != 0)
+            this.encoder.encode(states, s, (magnitude & m) != 0 ? 1 : 0);
+        this.qm.position = k + 1;
+    }
+}
+
+/*
+ * Turns the output of JpegQmEncoder back into the original Huffman-coded JPEG, using the DHT segments it kept.
+ * Arithmetic-coded intervals have no end of their own, so each one is decoded for as many MCUs as DRI and SOF imply.
+ */
+class JpegQmDecoder extends Jpeg {
+    private final JpegQm qm = new JpegQm();
+    private QmDecoder decoder;
+    private int mcusRead;
+    private int mcusLeft;
+
+    public JpegQmDecoder(String inputFileName, String outputFileName) {
+        super(inputFileName, outputFileName);
+    }
+
+    @Override
+    protected int frameMarker(int marker) {
+        checkState(marker == JpegQm.SOF9, "SOF9 not detected");
+        this.mcusRead = 0;
+        return 0xffc0;
+    }
+
+    @Override
+    protected void readConditioningTable(ByteBuffer payload) {
+        this.qm.readConditioningTables(payload);
+    }
+
+    @Override
+    protected boolean decodesIntervalsIndependently() {
+        return false;  // intervals cannot be told apart from their bits alone
+    }
+
+    @Override
+    protected void beginScanRead() {
+        this.qm.reset();
+        int left = this.mcus - this.mcusRead;
+        this.mcusLeft = this.restartInterval > 0 ? Math.min(this.restartInterval, left) : left;
+        this.decoder = new QmDecoder(new InputStream() {
+            @Override
+            public int read() {
+                return scanReader.nextByte();
+            }
+        });
+    }
+
+    @Override
+    protected boolean atScanEnd() {
+        // the coder need not have read every byte the encoder wrote, skip to the marker
+        while (this.scanReader.nextByte() >= 0)
+            ;
+        return true;
+    }
+
+    @Override
+    protected int readDcValue(ScanBitReader reader, Huffman huffman) {
+        if (this.qm.block % 6 == 0) {
+            if (this.mcusLeft == 0)
+                throw new NoSuchElementException();
+            this.mcusLeft--;
+            this.mcusRead++;
+        }
+        try {
+            return this.decodeDc();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    protected int readAcValue(ScanBitReader reader, Huffman huffman, int[] zeroHolder) {
+        try {
+            return this.decodeAc(this.isLuminance(huffman) ? 0 : 1, zeroHolder);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /*
+     * Decode_DC_DIFF, Figure F.19, with the value decoded as in Figures F.21 to F.24.
+     */
+    private int decodeDc() throws IOException {
+        int component = JpegQm.component(this.qm.block++), table = component == 0 ? 0 : 1;
+        byte[] states = this.qm.dcStates[table];
+        int s = this.qm.dcContext[component];
+        this.qm.position = 1;
+        if (this.decoder.decode(states, s) == 0) {
+            this.qm.dcContext[component] = 0;
+            return 0;
+        }
+        int sign = this.decoder.decode(states, s + 1);
+        s += 2 + sign;
+        int m = this.decoder.decode(states, s);
+        if (m != 0) {
+            s = 20;
+            while (this.decoder.decode(states, s) != 0) {
+                checkState((m <<= 1) != 0x8000, "DC difference out of range");
+                s++;
+            }
+        }
+        this.qm.dcContext[component] = this.qm.dcContext(table, m, sign);
+        return this.decodeMagnitude(states, s + 14, m, sign);
+    }
+
+    /*
+     * Decode_AC_Coefficients, Figure F.20, up to the next value and the run of zeros in front of it,
+     * or 0 after no zeros at the end of the block.
+     */
+    private int decodeAc(int table, int[] zeroHolder) throws IOException {
+        byte[] states = this.qm.acStates[table];
+        int k = this.qm.position;
+        int s = 3 * (k - 1);
+        zeroHolder[0] = 0;
+        if (this.decoder.decode(states, s) != 0)  // EOB
+            return 0;
+        while (this.decoder.decode(states, s + 1) == 0) {
+            checkState(++k < 64, "AC run past the end of the block");
+            s += 3;
+            zeroHolder[0]++;
+        }
+        int sign = this.decoder.decode(this.qm.fixed, 0);
+        s += 2;
+        int m = this.decoder.decode(states, s);
+        if (m != 0 && this.decoder.decode(states, s) != 0) {
+            m <<= 1;
+            s = k <= this.qm.acThreshold[table] ? 189 : 217;
+            while (this.decoder.decode(states, s) != 0) {
+                checkState((m <<= 1) != 0x8000, "AC coefficient out of range");
+                s++;
+            }
+        }
+        this.qm.position = k + 1;
+        return this.decodeMagnitude(states, s + 14, m, sign);
+    }
+
+    /*
+     * The bits below the leading one of magnitude - 1, Figure F.24.
+     */
+    private int decodeMagnitude(byte[] states, int s, int m, int sign) throws IOException {
+        int value = m;
+        while ((m >>= 1) != 0)
+            if (this.decoder.decode(states, s) != 0)
+                value |= m;
+        return sign != 0 ? -(value + 1) : value + 1;
+    }
+}
+
+/*
+ * What the arithmetic encoder and decoder both keep: the statistics areas of F.1.4.4 for two DC and two AC
+ * tables, the DC conditioning per component, the conditioning parameters of the DAC segment, and where in the
+ * block coding is.
+ */
+class JpegQm {
+    static final int SOF9 = 0xffc9;
+    static final int DAC = 0xffcc;
+
+    // conditioning parameters, the T.81 defaults
+    final int[] dcLower = {0, 0};
+    final int[] dcUpper = {1, 1};
+    final int[] acThreshold = {5, 5};
+
+    // statistics areas, Tables F.4 and F.5
+    final byte[][] dcStates = new byte[2][64];
+    final byte[][] acStates = new byte[2][256];
+    final byte[] fixed = new byte[1];
+    final int[] dcContext = new int[3];
+    int block;  // blocks coded since the restart
+    int position = 1;  // zigzag index of the next AC coefficient
+    int zeros;  // zeros of the ZRLs written since the last AC value
+
+    void reset() {
+        for (int t = 0; t < 2; t++) {
+            Arrays.fill(this.dcStates[t], (byte) 0);
+            Arrays.fill(this.acStates[t], (byte) 0);
+        }
+        this.fixed[0] = QmEncoder.FIXED_STATE;
+        Arrays.fill(this.dcContext, 0);
+        this.block = 0;
+        this.position = 1;
+        this.zeros = 0;
+    }
+
+    /*
+     * The conditioning category for the next DC difference of the component, F.1.4.4.1.2, given the
+     * magnitude category m of this one.
+     */
+    int dcContext(int table, int m, int sign) {
+        if (m < (1 << this.dcLower[table]) >> 1)
+            return 0;
+        if (m > (1 << this.dcUpper[table]) >> 1)
+            return 12 + 4 * sign;
+        return 4 + 4 * sign;
+    }
+
+    /*
+     * DAC payload for the DC and AC tables 0 and 1, pdf P42 B.2.4.3.
+     */
+    byte[] conditioningTables() {
+        byte[] payload = new byte[8];
+        for (int t = 0; t < 2; t++) {
+            payload[2 * t] = (byte) t;
+            payload[2 * t + 1] = (byte) (this.dcUpper[t] << 4 | this.dcLower[t]);
+            payload[4 + 2 * t] = (byte) (0x10 | t);
+            payload[5 + 2 * t] = (byte) this.acThreshold[t];
+        }
+        return payload;
+    }
+
+    void readConditioningTables(ByteBuffer payload) {
+        checkState(payload.remaining() % 2 == 0, "Unrecognized Arithmetic Conditioning Table");
+        while (payload.hasRemaining()) {
+            int id = payload.get() & 0xff;
+            int value = payload.get() & 0xff;
+            checkState((id & 0x0f) < 2, "Arithmetic conditioning table id not supported");
+            if ((id & 0xf0) == 0) {
+                this.dcLower[id & 0x0f] = value & 0x0f;
+                this.dcUpper[id & 0x0f] = value >> 4;
+                checkState((value & 0x0f) <= value >> 4, "DC conditioning bounds out of order");
+            } else {
+                checkState(value >= 1 && value <= 63, "AC conditioning threshold out of range");
+                this.acThreshold[id & 0x0f] = value;
+            }
+        }
+    }
+
+    /*
+     * Blocks go Y Y Y Y Cb Cr in every MCU.
+     */
+    static int component(int block) {
+        int b = block % 6;
+        return b < 4 ? 0 : b - 3;
+    }
+
+    public static void main(String[] args) throws IOException {
+        String file = "images/VEll6n1SaRHUyAiMHpg7tA.jpg";
+        String qm = file.replaceAll("[.].+?$", ".qm.jpg");
+        new JpegQmEncoder(file, qm).recompress();
+        new JpegQmDecoder(qm, file.replaceAll("[.].+?$", ".out.jpg")).recompress();
+    }
+}
@@ -1,125 +1,314 @@
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
-import java.util.List;
-import java.util.stream.Collectors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import static preconditions.Preconditions.checkArgument;
+import static preconditions.Preconditions.checkState;
 
 class PiedPiperEncoder extends Jpeg {
-    private List<int[]> prevComponentY = new ArrayList<>();
-    private List<int[]> prevComponentCb = new ArrayList<>();
-    private List<int[]> prevComponentCr = new ArrayList<>();
+    private int predictor = PiedPiper.FLOATING;
+    private boolean streaming;
+    private boolean parallel;
 
     PiedPiperEncoder(String inputFileName, String outputFileName) {
         super(inputFileName, outputFileName);
     }
 
+    /*
+     * Selects PiedPiper.FLOATING or FIXED, which is recorded in an APP segment along with the format version.
+     */
+    public void setPredictor(int predictor) {
+        checkArgument(predictor == PiedPiper.FLOATING || predictor == PiedPiper.FIXED);
+        this.predictor = predictor;
+    }
+
     @Override
-    protected void quantizeAndPredict() {
-        List<int[]> prevComponentY = this.componentY.stream()
-                .map(z -> Arrays.copyOf(z, 64)).collect(Collectors.toList());
-        List<int[]> prevComponentCb = this.componentCb.stream()
-                .map(z -> Arrays.copyOf(z, 64)).collect(Collectors.toList());
-        List<int[]> prevComponentCr = this.componentCr.stream()
-                .map(z -> Arrays.copyOf(z, 64)).collect(Collectors.toList());
-        this.quantizeAndPredict(this.componentY, this.prevComponentY,
-                this.quantizationTable0, true, this.width / 4);
-        this.quantizeAndPredict(this.componentCb, this.prevComponentCb,
-                this.quantizationTable1, false, this.width / 16);
-        this.quantizeAndPredict(this.componentCr, this.prevComponentCr,
-                this.quantizationTable1, false, this.width / 16);
-        this.prevComponentY = prevComponentY;
-        this.prevComponentCb = prevComponentCb;
-        this.prevComponentCr = prevComponentCr;
-    }
-
-    private void quantizeAndPredict(List<int[]> component, List<int[]> prevComponent,
-                                    int[] table, boolean y, int w) {
-        for (int i = component.size() - 1; i >= 0; i--) {
-            double prediction = PiedPiper.predict(i, component, prevComponent, y, w);
-            int[] zigzag = component.get(i);
-            zigzag[0] = zigzag[0] / table[0] - (int) Math.round(prediction / table[0]);
-            for (int j = 1; j < 64; j++)
-                zigzag[j] /= table[j];
-//            component.set(i, ZigZag.transform(zigzag));
-        }
+    public void setStreaming(boolean streaming) {
+        super.setStreaming(streaming);
+        this.streaming = streaming;
+    }
+
+    /*
+     * In parallel mode the DC values of a whole scan trunk are also predicted ahead of writing it, concurrently,
+     * see trunkRestored(). Streaming goes block by block regardless.
+     */
+    @Override
+    public void setParallel(boolean parallel) {
+        super.setParallel(parallel);
+        this.parallel = parallel;
+    }
+
+    private boolean predictsAhead() {
+        return this.parallel && !this.streaming;
+    }
+
+    @Override
+    protected void writeApplicationSegments(OutputStream os) {
+        this.writeApplicationSegment(os, PiedPiper.MARKER, PiedPiper.header(this.predictor));
+    }
+
+    @Override
+    protected void depredictAndDequantize(int i, CoefficientPlane plane, int[] table, boolean y) {
+        super.depredictAndDequantize(i, plane, table, y);
+        if (!this.predictsAhead())
+            PiedPiper.keepEdges(this.predictor, i, plane);
+    }
+
+    /*
+     * Predicting a block only reads the edges kept for its neighbours and its own coefficients, none of which
+     * writing changes, so in parallel mode the trunk's edges and then its predictions are all computed at once
+     * on the common ForkJoinPool, the same values the serial encoder computes one block at a time.
+     */
+    @Override
+    protected void trunkRestored() {
+        if (!this.predictsAhead())
+            return;
+        ForkJoinPool.commonPool().submit(() -> {
+            this.predictAhead(this.planeY, this.quantizationTable0, true);
+            this.predictAhead(this.planeCb, this.quantizationTable1, false);
+            this.predictAhead(this.planeCr, this.quantizationTable1, false);
+        }).join();
+    }
+
+    private void predictAhead(CoefficientPlane plane, int[] table, boolean y) {
+        int w = y ? this.width / 4 : this.width / 16;
+        int[] predictions = plane.predictions();
+        // the planes allocate these on first use, which has to be here rather than on several threads at once
+        if (this.predictor == PiedPiper.FIXED)
+            plane.fixedEdges();
+        else
+            plane.edges();
+        IntStream.range(0, plane.size()).parallel().forEach(i -> PiedPiper.keepEdges(this.predictor, i, plane));
+        IntStream.range(0, plane.size()).parallel().forEach(i -> predictions[plane.offset(i) / 64] =
+                PiedPiper.predict(this.predictor, i, plane, y, w, table[0]));
+    }
+
+    @Override
+    protected void quantizeAndPredict(int i, CoefficientPlane plane, int[] table, boolean y, int[] target) {
+        int prediction = this.predictsAhead() ? plane.predictions()[plane.offset(i) / 64]
+                : PiedPiper.predict(this.predictor, i, plane, y, y ? this.width / 4 : this.width / 16, table[0]);
+        int[] zigzag = plane.coefficients;
+        int offset = plane.offset(i);
+        target[0] = zigzag[offset] / table[0] - prediction;
+        for (int j = 1; j < 64; j++)
+            target[j] = zigzag[offset + j] / table[j];
+//        target = ZigZag.transform(target);
     }
 }
 
 class PiedPiperDecoder extends Jpeg {
-    private List<int[]> prevComponentY = new ArrayList<>();
-    private List<int[]> prevComponentCb = new ArrayList<>();
-    private List<int[]> prevComponentCr = new ArrayList<>();
+    private int predictor = PiedPiper.FLOATING;
 
     PiedPiperDecoder(String inputFileName, String outputFileName) {
         super(inputFileName, outputFileName);
     }
 
     @Override
-    protected void depredictAndDequantize() {
-        this.depredictAndDequantize(this.componentY, this.prevComponentY,
-                this.quantizationTable0, true, this.width / 4);
-        this.depredictAndDequantize(this.componentCb, this.prevComponentCb,
-                this.quantizationTable1, false, this.width / 16);
-        this.depredictAndDequantize(this.componentCr, this.prevComponentCr,
-                this.quantizationTable1, false, this.width / 16);
-        this.prevComponentY.clear();
-        for (int[] zigzag : this.componentY)
-            this.prevComponentY.add(Arrays.copyOf(zigzag, 64));
-        this.prevComponentCb.clear();
-        for (int[] zigzag : this.componentCb)
-            this.prevComponentCb.add(Arrays.copyOf(zigzag, 64));
-        this.prevComponentCr.clear();
-        for (int[] zigzag : this.componentCr)
-            this.prevComponentCr.add(Arrays.copyOf(zigzag, 64));
-    }
-
-    private void depredictAndDequantize(List<int[]> component, List<int[]> prevComponent,
-                                        int[] table, boolean y, int w) {
-        for (int i = 0; i < component.size(); i++) {
-            int[] zigzag = component.get(i);
-            for (int j = 1; j < 64; j++)
-                zigzag[j] *= table[j];
-            double prediction = PiedPiper.predict(i, component, prevComponent, y, w);
-            zigzag[0] = (zigzag[0] + (int) Math.round(prediction / table[0])) * table[0];
-        }
+    protected boolean readApplicationSegment(int marker, ByteBuffer payload) {
+        int predictor = PiedPiper.parseHeader(marker, payload);
+        if (predictor < 0)
+            return false;
+        this.predictor = predictor;
+        return true;
+    }
+
+    @Override
+    protected void depredictAndDequantize(int i, CoefficientPlane plane, int[] table, boolean y) {
+        int[] zigzag = plane.coefficients;
+        int offset = plane.offset(i);
+        for (int j = 1; j < 64; j++)
+            zigzag[offset + j] *= table[j];
+        int prediction = PiedPiper.predict(this.predictor, i, plane, y, y ? this.width / 4 : this.width / 16,
+                table[0]);
+        zigzag[offset] = (zigzag[offset] + prediction) * table[0];
+        PiedPiper.keepEdges(this.predictor, i, plane);
     }
 }
 
 class PiedPiper {
-    public static double predict(int i, List<int[]> component, List<int[]> prevComponent, boolean y, int w) {
-        int[][] block = ZigZag.zigzag2block(component.get(i));
-        block[0][0] = 0;
-        double[] delta;
+    // predictors
+    static final int FLOATING = 0;  // predict(), in doubles, what .jpp files without a PiedPiper segment use
+    static final int FIXED = 1;  // predictFixed(), in integers only, so that it gives the same on any JVM
+
+    // APP15 segment recording the format version and the predictor. Every .jpp gets one, so that a later change
+    // to how either predictor computes can take a new version; files without one predate it and are FLOATING.
+    static final int MARKER = 0xffef;
+    private static final byte[] IDENTIFIER = "JPP\0".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+
+    // the differences across the edges of the block being predicted, one buffer per thread for parallel encoding
+    private static final ThreadLocal<double[]> DELTA = ThreadLocal.withInitial(() -> new double[16]);
+    private static final ThreadLocal<int[]> FIXED_DELTA = ThreadLocal.withInitial(() -> new int[16]);
+
+    /*
+     * The DC value of block i as the given predictor predicts it, in quantization steps.
+     */
+    static int predict(int predictor, int i, CoefficientPlane plane, boolean y, int w, int quantization) {
+        if (predictor == FIXED)
+            return predictFixed(i, plane, y, w, quantization);
+        return (int) Math.round(predict(i, plane, y, w) / quantization);
+    }
+
+    /*
+     * Keeps the edges of block i for the given predictor, see keepEdges(int, CoefficientPlane).
+     */
+    static void keepEdges(int predictor, int i, CoefficientPlane plane) {
+        if (predictor == FIXED)
+            keepFixedEdges(i, plane);
+        else
+            keepEdges(i, plane);
+    }
+
+    /*
+     * Predicts the DC value of block i from the edges kept for the blocks above and to the left. Negative block
+     * numbers reach into the previous scan trunk.
+     */
+    public static double predict(int i, CoefficientPlane plane, boolean y, int w) {
         int left = leftBlock(i, y, w), above = aboveBlock(i, y, w);
-        if (above >= 0) {
-            delta = DctInt.idct1x8(block, 0);
-            minus(delta, 0, DctInt.idct1x8(ZigZag.zigzag2block(component.get(above)), 7));
-        } else if (above + prevComponent.size() >= 0) {
-            delta = DctInt.idct1x8(block, 0);
-            minus(delta, 0, DctInt.idct1x8(ZigZag.zigzag2block(prevComponent.get(above + prevComponent.size())), 7));
-        } else if (left >= 0) {
-            delta = DctInt.idct8x1(block, 0);
-            minus(delta, 0, DctInt.idct8x1(ZigZag.zigzag2block(component.get(left)), 7));
-            Arrays.sort(delta);
-            delta = Arrays.copyOfRange(delta, 3, delta.length - 3);
-            return Arrays.stream(delta).average().getAsDouble() * -8;
-        } else {
+        int[] coefficients = plane.coefficients;
+        int offset = plane.offset(i);
+        double[] edges = plane.edges();
+        double[] delta = DELTA.get();
+        int n = 0;
+        if (above + plane.previousSize() >= 0) {
+            DctInt.idct1x8(coefficients, offset, false, 0, delta, n);
+            minus(delta, n, edges, plane.edgeOffset(above));
+            n += 8;
+        }
+        if (left >= 0) {
+            DctInt.idct8x1(coefficients, offset, false, 0, delta, n);
+            minus(delta, n, edges, plane.edgeOffset(left) + 8);
+            n += 8;
+        }
+        if (n == 0)
             return 0;
+        return trimmedMean(delta, n, n / 8 * 3) * -8;
+    }
+
+    /*
+     * Keeps the bottom row and the right column of block i, which has to be final, for predicting the blocks
+     * below and to the right of it. Every block is kept before any block after it is predicted, so each edge is
+     * only computed once, and in a parallel encode the trunks' tasks find the edges of the trunk before theirs
+     * in place.
+     */
+    static void keepEdges(int i, CoefficientPlane plane) {
+        int offset = plane.offset(i), edgeOffset = plane.edgeOffset(i);
+        DctInt.idct1x8(plane.coefficients, offset, true, 7, plane.edges(), edgeOffset);
+        DctInt.idct8x1(plane.coefficients, offset, true, 7, plane.edges(), edgeOffset + 8);
+    }
+
+    /*
+     * The mean of the first n values without the trim smallest and the trim largest, sorting them in place.
+     * Bit for bit what Arrays.sort, copyOfRange and DoubleStream.average() give, which the .jpp format was
+     * defined by: the values summed in ascending order with the same compensated summation (JDK 17).
+     */
+    static double trimmedMean(double[] values, int n, int trim) {
+        // insertion sort, n is at most 16; equal values may be ordered differently, which does not change the sum
+        for (int i = 1; i < n; i++) {
+            double value = values[i];
+            int j = i - 1;
+            for (; j >= 0 && values[j] > value; j--)
+                values[j + 1] = values[j];
+            values[j + 1] = value;
+        }
+        double sum = 0, compensation = 0;
+        for (int i = trim; i < n - trim; i++) {
+            double value = values[i] - compensation;
+            double next = sum + value;
+            compensation = (next - sum) - value;
+            sum = next;
+        }
+        return (sum - compensation) / (n - 2 * trim);
+    }
+
+    /*
+     * Integer counterpart of predict(), already in quantization steps: the same edges and the same trimmed mean,
+     * with the edges from DctInt.fixed1x8 and fixed8x1 and the rounding of Math.round (halves up) done exactly.
+     * Usually equal to the floating-point prediction, it only differs where that lands within a few thousandths
+     * of a step from a half.
+     */
+    static int predictFixed(int i, CoefficientPlane plane, boolean y, int w, int quantization) {
+        int left = leftBlock(i, y, w), above = aboveBlock(i, y, w);
+        int[] coefficients = plane.coefficients;
+        int offset = plane.offset(i);
+        int[] edges = plane.fixedEdges();
+        int[] delta = FIXED_DELTA.get();
+        int n = 0;
+        if (above + plane.previousSize() >= 0) {
+            DctInt.fixed1x8(coefficients, offset, false, 0, delta, n);
+            minus(delta, n, edges, plane.edgeOffset(above));
+            n += 8;
         }
         if (left >= 0) {
-            delta = Arrays.copyOf(delta, 16);
-            System.arraycopy(DctInt.idct8x1(block, 0), 0, delta, 8, 8);
-            minus(delta, 8, DctInt.idct8x1(ZigZag.zigzag2block(component.get(left)), 7));
-            Arrays.sort(delta);
-            delta = Arrays.copyOfRange(delta, 6, delta.length - 6);
-        } else {
-            Arrays.sort(delta);
-            delta = Arrays.copyOfRange(delta, 3, delta.length - 3);
+            DctInt.fixed8x1(coefficients, offset, false, 0, delta, n);
+            minus(delta, n, edges, plane.edgeOffset(left) + 8);
+            n += 8;
+        }
+        if (n == 0)
+            return 0;
+        int trim = n / 8 * 3;
+        Arrays.sort(delta, 0, n);
+        long sum = 0;
+        for (int j = trim; j < n - trim; j++)
+            sum += delta[j];
+        // -8 * sum / count, in steps of quantization << FIXED_FRACTION_BITS, rounded halves up
+        long numerator = -8 * sum, denominator = (long) (n - 2 * trim) * quantization << DctInt.FIXED_FRACTION_BITS;
+        return (int) Math.floorDiv(2 * numerator + denominator, 2 * denominator);
+    }
+
+    /*
+     * Counterpart of keepEdges(int, CoefficientPlane) for predictFixed().
+     */
+    static void keepFixedEdges(int i, CoefficientPlane plane) {
+        int offset = plane.offset(i), edgeOffset = plane.edgeOffset(i);
+        DctInt.fixed1x8(plane.coefficients, offset, true, 7, plane.fixedEdges(), edgeOffset);
+        DctInt.fixed8x1(plane.coefficients, offset, true, 7, plane.fixedEdges(), edgeOffset + 8);
+    }
+
+    static byte[] header(int predictor) {
+        byte[] header = Arrays.copyOf(IDENTIFIER, IDENTIFIER.length + 2);
+        header[IDENTIFIER.length] = VERSION;
+        header[IDENTIFIER.length + 1] = (byte) predictor;
+        return header;
+    }
+
+    /*
+     * Returns the predictor recorded in an APP segment written by header(), or -1 if the segment is another one.
+     * A PiedPiper segment of another version, or one that is cut short, is rejected rather than decoded as if
+     * the file had none.
+     */
+    static int parseHeader(int marker, ByteBuffer payload) {
+        if (marker != MARKER || payload.remaining() < IDENTIFIER.length)
+            return -1;
+        for (int i = 0; i < IDENTIFIER.length; i++)
+            if (payload.get(i) != IDENTIFIER[i])
+                return -1;
+        checkState(payload.remaining() >= IDENTIFIER.length + 2, "PiedPiper segment too short");
+        int version = payload.get(IDENTIFIER.length) & 0xff;
+        if (version != VERSION)
+            throw new IllegalStateException(String.format("PiedPiper stream version %d not supported", version));
+        int predictor = payload.get(IDENTIFIER.length + 1) & 0xff;
+        if (predictor != FLOATING && predictor != FIXED)
+            throw new IllegalStateException(String.format("Unknown predictor %d", predictor));
+        return predictor;
+    }
+
+    static int parsePredictor(String name) {
+        switch (name) {
+            case "floating":
+                return FLOATING;
+            case "fixed":
+                return FIXED;
+            default:
+                throw new IllegalArgumentException(String.format("Unknown predictor %s", name));
         }
-        return Arrays.stream(delta).average().getAsDouble() * -8;
     }
 
-    private static int leftBlock(int i, boolean y, int w) {
+    static int leftBlock(int i, boolean y, int w) {
         if (y) {
             if (i % 4 == 1 || i % 4 == 3)
                 return i - 1;
@@ -131,7 +320,7 @@ class PiedPiper {
         }
     }
 
-    private static int aboveBlock(int i, boolean y, int w) {
+    static int aboveBlock(int i, boolean y, int w) {
         if (y) {
             if (i % 4 == 2 || i % 4 == 3)
                 return i - 2;
@@ -141,9 +330,14 @@ class PiedPiper {
         }
     }
 
-    private static void minus(double[] src, int srcPos, double[] dst) {
-        for (int i = 0; i < dst.length; i++)
-            src[srcPos + i] -= dst[i];
+    private static void minus(double[] src, int srcPos, double[] edges, int edgePos) {
+        for (int i = 0; i < 8; i++)
+            src[srcPos + i] -= edges[edgePos + i];
+    }
+
+    private static void minus(int[] src, int srcPos, int[] edges, int edgePos) {
+        for (int i = 0; i < 8; i++)
+            src[srcPos + i] -= edges[edgePos + i];
     }
 
     private static String currentDirectory(String path) {
@@ -152,34 +346,74 @@ class PiedPiper {
         return path.substring(path.lastIndexOf("/") + 1);
     }
 
+    private static boolean configure(Jpeg jpeg, String[] options) {
+        for (String option : options) {
+            if ("-stream".equals(option))
+                jpeg.setStreaming(true);
+            else if ("-parallel".equals(option))
+                jpeg.setParallel(true);
+            else if (option.startsWith("-predictor=") && jpeg instanceof PiedPiperEncoder)
+                ((PiedPiperEncoder) jpeg).setPredictor(parsePredictor(option.substring("-predictor=".length())));
+            else if (option.startsWith("-model=") && jpeg instanceof JpegArithEncoder)
+                ((JpegArithEncoder) jpeg).setModel(ArithModel.parse(option.substring("-model=".length())));
+            else if (option.startsWith("-coder=") && jpeg instanceof JpegArithEncoder)
+                ((JpegArithEncoder) jpeg).setCoder(JpegArith.parseCoder(option.substring("-coder=".length())));
+            else if (option.startsWith("-prior=") && jpeg instanceof JpegArithEncoder)
+                ((JpegArithEncoder) jpeg).setPrior(Integer.parseInt(option.substring("-prior=".length())));
+            else if (option.startsWith("-rescale=") && jpeg instanceof JpegArithEncoder)
+                ((JpegArithEncoder) jpeg).setRescaleBits(Integer.parseInt(option.substring("-rescale=".length())));
+            else
+                return false;
+        }
+        return true;
+    }
+
     public static void main(String[] args) throws IOException {
-        if (args.length == 2) {
+        if (args.length >= 2) {
+            String inputFile = args[args.length - 1];
+            Jpeg jpeg = null;
             if ("-analysis".equals(args[0])) {
-                String inputFile = args[1];
                 String outputFile = inputFile.replaceAll("[.].+?$", ".out.jpg");
-                new Jpeg(inputFile, currentDirectory(outputFile)).recompress();
-                return;
+                jpeg = new Jpeg(inputFile, currentDirectory(outputFile));
             } else if ("-encode".equals(args[0])) {
-                String inputFile = args[1];
                 String outputFile = inputFile.replaceAll("[.].+?$", ".jpp");
-                new PiedPiperEncoder(inputFile, currentDirectory(outputFile)).recompress();
-                return;
+                jpeg = new PiedPiperEncoder(inputFile, currentDirectory(outputFile));
             } else if ("-decode".equals(args[0])) {
-                String inputFile = args[1];
                 String outputFile = inputFile.replaceAll("[.].+?$", ".out.jpg");
-                new PiedPiperDecoder(inputFile, currentDirectory(outputFile)).recompress();
-                return;
+                jpeg = new PiedPiperDecoder(inputFile, currentDirectory(outputFile));
             } else if ("-arithmetic".equals(args[0])) {
-                String inputFile = args[1];
                 String outputFile = inputFile.replaceAll("[.].+?$", ".out.jpg");
-                new JpegArithEncoder(inputFile, currentDirectory(outputFile)).recompress();
+                jpeg = new JpegArithEncoder(inputFile, currentDirectory(outputFile));
+            } else if ("-optimize".equals(args[0])) {
+                String outputFile = inputFile.replaceAll("[.].+?$", ".opt.jpg");
+                jpeg = new JpegOptimizer(inputFile, currentDirectory(outputFile));
+            } else if ("-qm".equals(args[0])) {
+                String outputFile = inputFile.replaceAll("[.].+?$", ".qm.jpg");
+                jpeg = new JpegQmEncoder(inputFile, currentDirectory(outputFile));
+            } else if ("-huffman".equals(args[0])) {
+                String outputFile = inputFile.replaceAll("([.]qm)?[.].+?$", ".out.jpg");
+                jpeg = new JpegQmDecoder(inputFile, currentDirectory(outputFile));
+            }
+            if (jpeg != null && configure(jpeg, Arrays.copyOfRange(args, 1, args.length - 1))) {
+                jpeg.recompress();
                 return;
             }
         }
-        System.err.println("Usage: java PiedPiper -analysis <InputFile>");
-        System.err.println("Usage: java PiedPiper -encode <InputFile>");
-        System.err.println("Usage: java PiedPiper -decode <InputFile>");
-        System.err.println("Usage: java PiedPiper -arithmetic <InputFile>");
+        System.err.println("Usage: java PiedPiper -analysis [Options] <InputFile>");
+        System.err.println("Usage: java PiedPiper -encode [Options] <InputFile>");
+        System.err.println("Usage: java PiedPiper -decode [Options] <InputFile>");
+        System.err.println("Usage: java PiedPiper -arithmetic [Options] <InputFile>");
+        System.err.println("Usage: java PiedPiper -optimize [Options] <InputFile>");
+        System.err.println("Usage: java PiedPiper -qm [Options] <InputFile>");
+        System.err.println("Usage: java PiedPiper -huffman [Options] <InputFile>");
+        System.err.println("Options:");
+        System.err.println("  -stream    transcode MCU by MCU, keeping only about one MCU row in memory");
+        System.err.println("  -parallel  decode and encode restart intervals on all cores");
+        System.err.println("  -predictor=<floating|fixed>  DC predictor, fixed-point being the same on any JVM, -encode only");
+        System.err.println("  -model=<literal|token|context|binary>  arithmetic model, -arithmetic only");
+        System.err.println("  -coder=<arithmetic|range|rans>  entropy coder under the model, -arithmetic only");
+        System.err.println("  -prior=<id>  start the model from a prior trained with java Prior, -arithmetic only");
+        System.err.println("  -rescale=<17-29>  halve the model's counts past 2^n, -arithmetic only");
         System.exit(1);
     }
-}
\ No newline at end of file
+}
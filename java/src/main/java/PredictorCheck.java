@@ -0,0 +1,99 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/*
+ * Compares PiedPiper's fixed-point predictor with the floating-point one on a directory of JPEGs: how many blocks
+ * they predict differently, the .jpp sizes with either, and whether the fixed-point .jpp decodes back to what
+ * the transcoder makes of the original.
+ */
+class PredictorCheck extends Jpeg {
+    long blocks;
+    long differing;
+    int largestDifference;  // in quantization steps
+
+    private PredictorCheck() {
+        super(null, null);
+    }
+
+    /*
+     * Predicts every block both ways once it is final, each predictor from edges of its own.
+     */
+    @Override
+    protected void depredictAndDequantize(int i, CoefficientPlane plane, int[] table, boolean y) {
+        super.depredictAndDequantize(i, plane, table, y);
+        int w = y ? this.width / 4 : this.width / 16;
+        int floating = PiedPiper.predict(PiedPiper.FLOATING, i, plane, y, w, table[0]);
+        int fixed = PiedPiper.predict(PiedPiper.FIXED, i, plane, y, w, table[0]);
+        this.blocks++;
+        if (floating != fixed) {
+            this.differing++;
+            this.largestDifference = Math.max(this.largestDifference, Math.abs(floating - fixed));
+        }
+        PiedPiper.keepEdges(PiedPiper.FLOATING, i, plane);
+        PiedPiper.keepEdges(PiedPiper.FIXED, i, plane);
+    }
+
+    private static byte[] transcode(Jpeg jpeg, byte[] input) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        jpeg.recompress(ByteBuffer.wrap(input), output);
+        return output.toByteArray();
+    }
+
+    /*
+     * java PredictorCheck <directory of JPEGs>
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: java PredictorCheck <ImageDirectory>");
+            System.exit(1);
+        }
+        List<Path> images;
+        try (Stream<Path> files = Files.list(Paths.get(args[0]))) {
+            images = files.filter(p -> p.getFileName().toString().toLowerCase().matches(".*[.]jpe?g"))
+                    .sorted().collect(Collectors.toList());
+        }
+        StringBuilder report = new StringBuilder();
+        long blocks = 0, differing = 0, floatingBytes = 0, fixedBytes = 0;
+        int failures = 0;
+        for (Path image : images) {
+            byte[] input = Files.readAllBytes(image);
+            PredictorCheck check = new PredictorCheck();
+            byte[] original, floating, fixed, decoded;
+            try {
+                original = transcode(check, input);
+                floating = transcode(new PiedPiperEncoder(null, null), input);
+                PiedPiperEncoder encoder = new PiedPiperEncoder(null, null);
+                encoder.setPredictor(PiedPiper.FIXED);
+                fixed = transcode(encoder, input);
+                decoded = transcode(new PiedPiperDecoder(null, null), fixed);
+            } catch (IllegalStateException e) {
+                System.err.printf("Skipping %s: %s\n", image, e.getMessage());
+                continue;
+            }
+            boolean roundTrip = Arrays.equals(original, decoded);
+            if (!roundTrip)
+                failures++;
+            report.append(String.format("%s: %d blocks, %d predicted differently (up to %d steps), "
+                            + ".jpp %d bytes floating, %d fixed, round trip %s\n", image.getFileName(), check.blocks,
+                    check.differing, check.largestDifference, floating.length, fixed.length,
+                    roundTrip ? "ok" : "FAILED"));
+            blocks += check.blocks;
+            differing += check.differing;
+            floatingBytes += floating.length;
+            fixedBytes += fixed.length;
+        }
+        System.out.print(report);
+        System.out.printf("All: %d blocks, %d predicted differently, .jpp %d bytes floating, %d fixed, "
+                + "%d round trips failed\n", blocks, differing, floatingBytes, fixedBytes, failures);
+        if (failures > 0)
+            System.exit(1);
+    }
+}
@@ -0,0 +1,166 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static preconditions.Preconditions.checkArgument;
+import static preconditions.Preconditions.checkState;
+
+/*
+ * Tables an arithmetic model starts from instead of flat ones, trained on a corpus of JPEGs so that small images
+ * do not spend most of their bits on learning the statistics. Priors are resources on the class path,
+ * priors/<id>.prior, and the stream records the ID, so the decoder has to be built with the same resource.
+ * Training is deterministic: the images are taken in name order and the tables are merged in integer arithmetic.
+ *
+ * Format: "JPR" and a version byte, the ID, the model, then deflated the number of tables and each table as
+ * its length and values, all varints.
+ */
+class Prior {
+    static final int NONE = 0;
+    // what a prior adds to each frequency table in all
+    static final int WEIGHT = 1024;
+    private static final byte[] IDENTIFIER = "JPR".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+
+    final int id;
+    final int model;
+    final int[][] tables;
+
+    Prior(int id, int model, int[][] tables) {
+        checkArgument(id > NONE && id <= 0xff);
+        this.id = id;
+        this.model = model;
+        this.tables = tables;
+    }
+
+    /*
+     * Loads the prior with the given ID, which has to be one for the given model.
+     */
+    static Prior load(int id, int model) {
+        String name = String.format("/priors/%d.prior", id);
+        try (InputStream is = Prior.class.getResourceAsStream(name)) {
+            checkState(is != null, String.format("Prior %d not found, %s is not on the class path", id, name));
+            Prior prior = read(new BufferedInputStream(is));
+            checkState(prior.id == id, String.format("%s holds prior %d", name, prior.id));
+            checkState(prior.model == model, String.format("Prior %d is for arithmetic model %d, not %d",
+                    id, prior.model, model));
+            return prior;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static Prior read(InputStream is) throws IOException {
+        byte[] identifier = new byte[IDENTIFIER.length];
+        checkState(is.read(identifier) == identifier.length && Arrays.equals(identifier, IDENTIFIER),
+                "Not a prior");
+        int version = is.read();
+        checkState(version == VERSION, String.format("Prior version %d not supported", version));
+        int id = is.read();
+        int model = is.read();
+        InputStream tables = new InflaterInputStream(is);
+        int[][] prior = new int[readVarint(tables)][];
+        for (int t = 0; t < prior.length; t++) {
+            prior[t] = new int[readVarint(tables)];
+            for (int i = 0; i < prior[t].length; i++)
+                prior[t][i] = readVarint(tables);
+        }
+        return new Prior(id, model, prior);
+    }
+
+    void write(OutputStream os) throws IOException {
+        os.write(IDENTIFIER);
+        os.write(VERSION);
+        os.write(this.id);
+        os.write(this.model);
+        DeflaterOutputStream tables = new DeflaterOutputStream(os);
+        writeVarint(tables, this.tables.length);
+        for (int[] table : this.tables) {
+            writeVarint(tables, table.length);
+            for (int value : table)
+                writeVarint(tables, value);
+        }
+        tables.finish();
+    }
+
+    /*
+     * Codes every image with a fresh model and merges the tables it ends with. Images the transcoder does not
+     * support are left out.
+     */
+    static Prior train(int id, int model, List<Path> images) throws IOException {
+        OutputStream discard = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+        List<int[][]> trained = new ArrayList<>();
+        for (Path image : images) {
+            JpegArithEncoder encoder = new JpegArithEncoder(null, null);
+            encoder.setModel(model);
+            try {
+                encoder.recompress(ByteBuffer.wrap(Files.readAllBytes(image)), discard);
+            } catch (IllegalStateException e) {
+                System.err.printf("Skipping %s: %s\n", image, e.getMessage());
+                continue;
+            }
+            trained.add(encoder.model.tables());
+        }
+        checkState(!trained.isEmpty(), "No image to train on");
+        System.out.printf("Trained on %d images\n", trained.size());
+        return new Prior(id, model, ArithModel.create(model).prior(trained));
+    }
+
+    private static int readVarint(InputStream is) throws IOException {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = is.read();
+            checkState(b >= 0 && shift < 32, "Truncated prior");
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+    }
+
+    private static void writeVarint(OutputStream os, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            os.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        os.write(value);
+    }
+
+    /*
+     * java Prior <directory of JPEGs> <model> <id> [output directory, src/main/resources/priors by default]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: java Prior <ImageDirectory> <literal|token|context|binary> <Id> [OutputDirectory]");
+            System.exit(1);
+        }
+        List<Path> images;
+        try (Stream<Path> files = Files.list(Paths.get(args[0]))) {
+            images = files.filter(p -> p.getFileName().toString().toLowerCase().matches(".*[.]jpe?g"))
+                    .sorted().collect(Collectors.toList());
+        }
+        Prior prior = train(Integer.parseInt(args[2]), ArithModel.parse(args[1]), images);
+        Path output = Paths.get(args.length > 3 ? args[3] : "src/main/resources/priors", prior.id + ".prior");
+        Files.createDirectories(output.getParent());
+        try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(output))) {
+            prior.write(os);
+        }
+        System.out.printf("Prior %d written to %s, %d bytes\n", prior.id, output, Files.size(output));
+    }
+}
@@ -0,0 +1,128 @@
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+/*
+ * Bit reader for entropy-coded segments, pdf P91 F.1.2.3
+ * Bytes are copied from the input in chunks and pulled into a 64-bit accumulator. Stuffed 0xFF00 pairs are collapsed while
+ * refilling, and refilling stops in front of the first marker (RSTn, EOI, ...), which is left unread.
+ */
+class ScanBitReader {
+    private static final int CHUNK = 8192;
+    private final ByteBuffer in;
+    private final ByteBuffer source;
+    private final byte[] buffer = new byte[CHUNK];
+    private int base;
+    private int position;
+    private int limit;
+    private long bits;
+    private int count;
+    private boolean markerReached;
+
+    ScanBitReader(ByteBuffer in) {
+        this.in = in;
+        this.source = in.duplicate();
+        this.base = in.position();
+    }
+
+    /*
+     * Number of bits left before the marker, capped at whatever the accumulator holds after a refill.
+     */
+    int available() {
+        if (this.count < 16)
+            this.fill();
+        return this.count;
+    }
+
+    /*
+     * Next 16 bits, MSB first, zero padded past the marker.
+     */
+    int peek16() {
+        if (this.count < 16)
+            this.fill();
+        int count = this.count;
+        return (int) (count >= 16 ? this.bits >>> (count - 16) : this.bits << (16 - count)) & 0xffff;
+    }
+
+    void skip(int n) {
+        if (this.count < n)
+            this.fill();
+        if (this.count < n)
+            throw new NoSuchElementException();
+        this.count -= n;
+    }
+
+    int readBits(int n) {
+        if (this.count < n)
+            this.fill();
+        if (this.count < n)
+            throw new NoSuchElementException();
+        this.count -= n;
+        return (int) (this.bits >>> this.count) & ((1 << n) - 1);
+    }
+
+    /*
+     * Next whole byte in the scan, or -1 once the marker is reached.
+     */
+    int nextByte() {
+        if (this.count < 8)
+            this.fill();
+        if (this.count < 8)
+            return -1;
+        this.count -= 8;
+        return (int) (this.bits >>> this.count) & 0xff;
+    }
+
+    /*
+     * Whether the bits left before the marker are the 1-bit padding of F.1.2.3.
+     */
+    boolean atPadding() {
+        this.fill();
+        int mask = (1 << this.count) - 1;
+        return this.markerReached && this.count < 8 && (this.bits & mask) == mask;
+    }
+
+    /*
+     * Moves the input's position to the first byte not pulled into the accumulator, normally the marker.
+     */
+    void close() {
+        this.in.position(this.base + this.position);
+    }
+
+    private void fill() {
+        byte[] buffer = this.buffer;
+        while (this.count <= 56 && !this.markerReached) {
+            if (this.position + 1 >= this.limit && !this.rebase())
+                break;
+            int b = buffer[this.position] & 0xff;
+            if (b != 0xff) {
+                this.position++;
+            } else if (buffer[this.position + 1] == 0x00) {
+                this.position += 2;
+            } else {
+                this.markerReached = true;
+                break;
+            }
+            this.bits = (this.bits << 8) | b;
+            this.count += 8;
+        }
+    }
+
+    /*
+     * Starts the next chunk at the current position so that a 0xFF at the end of the buffer
+     * is read together with its successor. Returns false at the end of the input.
+     */
+    private boolean rebase() {
+        int start = this.base + this.position;
+        int remaining = this.source.limit() - start;
+        if (remaining < 2) {
+            this.markerReached = true;
+            return false;
+        }
+        this.base = start;
+        this.position = 0;
+        this.limit = Math.min(CHUNK, remaining);
+        this.source.position(start);
+        this.source.get(this.buffer, 0, this.limit);
+        return true;
+    }
+}
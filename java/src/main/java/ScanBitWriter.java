@@ -0,0 +1,88 @@
+import java.io.IOException;
+import java.io.OutputStream;
+
+/*
+ * Bit writer for entropy-coded segments, pdf P91 F.1.2.3
+ * Codes are collected in a 64-bit accumulator and emitted 32 bits at a time into a reusable buffer,
+ * which is handed to the output stream in large chunks. A 0x00 is stuffed after every 0xFF byte.
+ */
+class ScanBitWriter {
+    private static final int CHUNK = 8192;
+    private final byte[] buffer = new byte[CHUNK + 8];
+    private OutputStream os;
+    private int position;
+    private int written;
+    private long bits;
+    private int count;
+
+    void start(OutputStream os) {
+        this.os = os;
+        this.position = 0;
+        this.written = 0;
+        this.bits = 0;
+        this.count = 0;
+    }
+
+    /*
+     * Appends the low n bits of value, n <= 32.
+     */
+    void writeBits(int value, int n) {
+        this.bits = (this.bits << n) | (value & 0xffffffffL);
+        this.count += n;
+        if (this.count >= 32)
+            this.emitWord();
+    }
+
+    /*
+     * Pads the last byte with 1-bits, flushes everything to the output stream
+     * and returns the number of bytes written since start().
+     */
+    int finish() {
+        if ((this.count & 7) != 0)
+            this.writeBits((1 << (8 - (this.count & 7))) - 1, 8 - (this.count & 7));
+        while (this.count >= 8) {
+            this.count -= 8;
+            this.emitByte((int) (this.bits >>> this.count) & 0xff);
+        }
+        this.flush();
+        return this.written;
+    }
+
+    private void emitWord() {
+        this.count -= 32;
+        int word = (int) (this.bits >>> this.count);
+        int inverted = ~word;
+        if (((inverted - 0x01010101) & ~inverted & 0x80808080) == 0) {  // no 0xff byte to stuff
+            byte[] buffer = this.buffer;
+            int position = this.position;
+            buffer[position] = (byte) (word >>> 24);
+            buffer[position + 1] = (byte) (word >>> 16);
+            buffer[position + 2] = (byte) (word >>> 8);
+            buffer[position + 3] = (byte) word;
+            this.position = position + 4;
+        } else {
+            this.emitByte(word >>> 24);
+            this.emitByte((word >>> 16) & 0xff);
+            this.emitByte((word >>> 8) & 0xff);
+            this.emitByte(word & 0xff);
+        }
+        if (this.position >= CHUNK)
+            this.flush();
+    }
+
+    private void emitByte(int b) {
+        this.buffer[this.position++] = (byte) b;
+        if (b == 0xff)
+            this.buffer[this.position++] = 0x00;
+    }
+
+    private void flush() {
+        try {
+            this.os.write(this.buffer, 0, this.position);
+            this.written += this.position;
+            this.position = 0;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * What encoding scans adds up to: how often each symbol is written per Huffman table, and the bits spent
+ * on DC and AC values. Every thread encoding a scan keeps its own, to be merged with add() afterwards.
+ * The frequencies of a table are indexed by symbol, grown as larger ones come, so counting boxes nothing.
+ */
+class ScanStatistics {
+    final Map<Huffman, int[]> symbolFreqStats = new HashMap<>();
+    int dcValueBits;
+    int acValueBits;
+
+    void count(Huffman huffman, int symbol) {
+        int[] frequencies = this.symbolFreqStats.get(huffman);
+        if (frequencies == null || symbol >= frequencies.length)
+            frequencies = this.grow(huffman, frequencies, symbol);
+        frequencies[symbol]++;
+    }
+
+    void add(ScanStatistics other) {
+        other.symbolFreqStats.forEach((huffman, frequencies) -> {
+            int[] target = this.symbolFreqStats.get(huffman);
+            if (target == null || frequencies.length > target.length)
+                target = this.grow(huffman, target, frequencies.length - 1);
+            for (int symbol = 0; symbol < frequencies.length; symbol++)
+                target[symbol] += frequencies[symbol];
+        });
+        this.dcValueBits += other.dcValueBits;
+        this.acValueBits += other.acValueBits;
+    }
+
+    // room for symbol, in powers of 2 of at least 256
+    private int[] grow(Huffman huffman, int[] frequencies, int symbol) {
+        int length = Math.max(256, Integer.highestOneBit(symbol) << 1);
+        frequencies = frequencies == null ? new int[length] : Arrays.copyOf(frequencies, length);
+        this.symbolFreqStats.put(huffman, frequencies);
+        return frequencies;
+    }
+}
@@ -0,0 +1,131 @@
+import arithmetic.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/*
+ * Symbols per second through the bit-wise ArithmeticEncoder/Decoder against the byte-wise RangeEncoder/Decoder
+ * and the interleaved RansEncoder/Decoder, with the same adaptive Fenwick table so that only the coders differ
+ * (rANS only takes the table as a context and codes with the static frequencies it counted).
+ * A second round uses a static table, counted from the symbols beforehand, which leaves out the cost of
+ * adapting and shows what the coders themselves cost. Decoding is also given in MB of coded data per second.
+ */
+public class SymbolCoderBenchmark {
+    private static final int SYMBOLS = 32769;
+
+    interface Coder {
+        SymbolEncoder encoder(OutputStream out);
+
+        SymbolDecoder decoder(InputStream in) throws IOException;
+    }
+
+    private static final Coder ARITHMETIC = new Coder() {
+        @Override
+        public SymbolEncoder encoder(OutputStream out) {
+            BitOutputStream output = new BitOutputStream(out);
+            ArithmeticEncoder encoder = new ArithmeticEncoder(32, output);
+            return new SymbolEncoder() {
+                @Override
+                public void write(FrequencyTable freqs, int symbol) throws IOException {
+                    encoder.write(freqs, symbol);
+                }
+
+                @Override
+                public void finish() throws IOException {
+                    encoder.finish();
+                    output.close();  // pads the last byte
+                }
+            };
+        }
+
+        @Override
+        public SymbolDecoder decoder(InputStream in) throws IOException {
+            return new ArithmeticDecoder(32, new BitInputStream(in));
+        }
+    };
+
+    private static final Coder RANGE = new Coder() {
+        @Override
+        public SymbolEncoder encoder(OutputStream out) {
+            return new RangeEncoder(out);
+        }
+
+        @Override
+        public SymbolDecoder decoder(InputStream in) throws IOException {
+            return new RangeDecoder(in);
+        }
+    };
+
+    private static final Coder RANS = new Coder() {
+        @Override
+        public SymbolEncoder encoder(OutputStream out) {
+            return new RansEncoder(out);
+        }
+
+        @Override
+        public SymbolDecoder decoder(InputStream in) throws IOException {
+            return new RansDecoder(in);
+        }
+    };
+
+    // null for the adaptive table
+    private static FrequencyTable table(int[] counts) {
+        if (counts != null)
+            return new FenwickFrequencyTable(counts);
+        return new FenwickFrequencyTable(new FlatFrequencyTable(SYMBOLS));
+    }
+
+    private static byte[] run(String name, Coder coder, int[] symbols, int[] counts) throws IOException {
+        long start = System.nanoTime();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        SymbolEncoder encoder = coder.encoder(bytes);
+        FrequencyTable freqs = table(counts);
+        for (int symbol : symbols) {
+            encoder.write(freqs, symbol);
+            if (counts == null)
+                freqs.increment(symbol);
+        }
+        encoder.write(freqs, SYMBOLS - 1);
+        encoder.finish();
+        byte[] data = bytes.toByteArray();
+        long middle = System.nanoTime();
+        SymbolDecoder decoder = coder.decoder(new ByteArrayInputStream(data));
+        freqs = table(counts);
+        int[] decoded = new int[symbols.length];
+        for (int i = 0; i < symbols.length; i++) {
+            decoded[i] = decoder.read(freqs);
+            if (counts == null)
+                freqs.increment(decoded[i]);
+        }
+        if (decoder.read(freqs) != SYMBOLS - 1)
+            throw new IllegalStateException(name + " lost the EOF symbol");
+        long end = System.nanoTime();
+        if (!Arrays.equals(symbols, decoded))
+            throw new IllegalStateException(name + " did not decode what it encoded");
+        System.out.printf("%s%s: encode %.3f Msym/s, decode %.3f Msym/s (%.1f MB/s), %d bytes\n",
+                name, counts != null ? " (static)" : "",
+                symbols.length * 1e3 / (middle - start), symbols.length * 1e3 / (end - middle),
+                data.length * 1e3 / (end - middle), data.length);
+        return data;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int[] symbols = FrequencyTableBenchmark.symbols(n, 338);
+        int[] counts = new int[SYMBOLS];
+        for (int symbol : symbols)
+            counts[symbol]++;
+        counts[SYMBOLS - 1]++;
+        for (int round = 0; round < 5; round++) {
+            for (int[] table : new int[][]{null, counts}) {
+                run("ArithmeticEncoder", ARITHMETIC, symbols, table);
+                run("RangeEncoder", RANGE, symbols, table);
+                run("RansEncoder", RANS, symbols, table);
+            }
+        }
+    }
+}
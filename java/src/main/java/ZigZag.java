@@ -2,9 +2,22 @@ import java.util.Arrays;
 import java.util.stream.IntStream;
 
 public class ZigZag {
+    /*
+     * Position in zigzag order of the coefficient at row v and column u of a block, at index v * 8 + u.
+     */
+    static final int[] INDEX = Arrays.stream(zigzag2block(IntStream.range(0, 64).toArray()))
+            .flatMapToInt(Arrays::stream).toArray();
+
     public static int[][] zigzag2block(int[] zigzag) {
+        return zigzag2block(zigzag, 0);
+    }
+
+    /*
+     * Same as above, for the 64 values starting at offset.
+     */
+    public static int[][] zigzag2block(int[] zigzag, int offset) {
         int[][] block = new int[8][8];
-        int n = 0;
+        int n = offset;
         for (int i = 0; i < 8; i++) {
             if (i % 2 == 0) {
                 for (int j = 0; j <= i; j++)
@@ -16,7 +16,7 @@ import java.util.Objects;
  *
  * @see ArithmeticEncoder
  */
-public final class ArithmeticDecoder extends ArithmeticCoderBase {
+public final class ArithmeticDecoder extends ArithmeticCoderBase implements SymbolDecoder {
 
     /*---- Fields ----*/
 
@@ -74,20 +74,8 @@ public final class ArithmeticDecoder extends ArithmeticCoderBase {
         if (value < 0 || value >= total)
             throw new AssertionError();
 
-        // A kind of binary search. Find highest symbol such that freqs.getLow(symbol) <= value.
-        int start = 0;
-        int end = freqs.getSymbolLimit();
-        while (end - start > 1) {
-            int middle = (start + end) >>> 1;
-            if (freqs.getLow(middle) > value)
-                end = middle;
-            else
-                start = middle;
-        }
-        if (start + 1 != end)
-            throw new AssertionError();
-
-        int symbol = start;
+        // Find highest symbol such that freqs.getLow(symbol) <= value.
+        int symbol = freqs.getSymbol((int) value);
         if (offset < freqs.getLow(symbol) * range / total || freqs.getHigh(symbol) * range / total <= offset)
             throw new AssertionError();
         update(freqs, symbol);
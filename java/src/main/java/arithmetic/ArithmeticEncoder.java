@@ -16,7 +16,7 @@ import java.util.Objects;
  *
  * @see ArithmeticDecoder
  */
-public final class ArithmeticEncoder extends ArithmeticCoderBase {
+public final class ArithmeticEncoder extends ArithmeticCoderBase implements SymbolEncoder {
 
     /*---- Fields ----*/
 
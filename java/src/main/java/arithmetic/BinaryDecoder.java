@@ -0,0 +1,114 @@
+package arithmetic;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+
+
+/**
+ * Reads from a byte stream written by {@link BinaryEncoder} and decodes bits, adapting the caller's
+ * probabilities the same way the encoder did. Not thread-safe.
+ *
+ * @see BinaryEncoder
+ */
+public final class BinaryDecoder {
+
+    /*---- Fields ----*/
+
+    // The underlying byte input stream (not null).
+    private final InputStream input;
+
+    // Offset of the coded value from the low end of the range, an unsigned 32-bit value below 'range'.
+    private int code;
+
+    // Size of the range, mirroring the encoder's.
+    private int range;
+
+
+
+    /*---- Constructor ----*/
+
+    /**
+     * Constructs a binary decoder that reads from the specified byte input stream.
+     * The first 4 bytes are read right away.
+     *
+     * @param in the byte input stream to read from
+     * @throws NullPointerException if the input stream is {@code null}
+     * @throws IOException          if an I/O exception occurred
+     */
+    public BinaryDecoder(InputStream in) throws IOException {
+        input = Objects.requireNonNull(in);
+        range = -1;
+        for (int i = 0; i < 4; i++)
+            code = code << 8 | readByte();
+    }
+
+
+
+    /*---- Methods ----*/
+
+    /**
+     * Decodes the next bit with the probability at the specified index, then adapts the probability to it.
+     *
+     * @param probabilities the probabilities of 0 bits, as given to the encoder
+     * @param index         the index of the probability to use
+     * @return the bit, 0 or 1
+     * @throws IOException if an I/O exception occurred
+     */
+    public int decode(short[] probabilities, int index) throws IOException {
+        int probability = probabilities[index];
+        int bound = (range >>> BinaryEncoder.PROBABILITY_BITS) * probability;
+        int bit;
+        if (Integer.compareUnsigned(code, bound) < 0) {
+            range = bound;
+            probabilities[index] = (short) (probability
+                    + (((1 << BinaryEncoder.PROBABILITY_BITS) - probability) >>> BinaryEncoder.ADAPTATION_SHIFT));
+            bit = 0;
+        } else {
+            code -= bound;
+            range -= bound;
+            probabilities[index] = (short) (probability - (probability >>> BinaryEncoder.ADAPTATION_SHIFT));
+            bit = 1;
+        }
+        while (Integer.compareUnsigned(range, BinaryEncoder.TOP) < 0) {
+            code = code << 8 | readByte();
+            range <<= 8;
+        }
+        return bit;
+    }
+
+
+    /**
+     * Decodes {@code count} bits written by {@link BinaryEncoder#encodeDirect(int, int)}.
+     *
+     * @param count the number of bits, in [0, 31]
+     * @return the bits, the first one decoded the most significant
+     * @throws IOException if an I/O exception occurred
+     */
+    public int decodeDirect(int count) throws IOException {
+        int value = 0;
+        for (int i = 0; i < count; i++) {
+            range >>>= 1;
+            int bit = Integer.compareUnsigned(code, range) < 0 ? 0 : 1;
+            if (bit != 0)
+                code -= range;
+            value = value << 1 | bit;
+            while (Integer.compareUnsigned(range, BinaryEncoder.TOP) < 0) {
+                code = code << 8 | readByte();
+                range <<= 8;
+            }
+        }
+        return value;
+    }
+
+
+    // Returns the next byte from the input stream. The end
+    // of stream is treated as an infinite number of trailing zeros.
+    private int readByte() throws IOException {
+        int temp = input.read();
+        if (temp == -1)
+            temp = 0;
+        return temp;
+    }
+
+}
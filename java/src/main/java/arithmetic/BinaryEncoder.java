@@ -0,0 +1,153 @@
+package arithmetic;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Objects;
+
+
+/**
+ * Encodes bits with adaptive probabilities, in the style of the LZMA range coder. Each probability is
+ * a 12-bit estimate that the bit is 0, kept by the caller in a {@code short[]} array and updated by a shift
+ * after every bit, so coding a bit takes one multiplication and no division. Bits can also be written
+ * directly at probability 1/2. The range is renormalized a byte at a time, with carries resolved by
+ * holding back the last byte and any run of 0xFF bytes behind it. Not thread-safe.
+ *
+ * @see BinaryDecoder
+ */
+public final class BinaryEncoder {
+
+    /*---- Constants ----*/
+
+    // Probabilities are out of 2^PROBABILITY_BITS.
+    static final int PROBABILITY_BITS = 12;
+
+    /**
+     * The probability of a 0 bit that a context should start at: 1/2.
+     */
+    public static final short INITIAL_PROBABILITY = 1 << (PROBABILITY_BITS - 1);
+
+    // How fast probabilities adapt: each bit moves them 1/2^ADAPTATION_SHIFT of the way towards it.
+    static final int ADAPTATION_SHIFT = 4;
+
+    // The range is renormalized once its top byte is empty.
+    static final int TOP = 1 << 24;
+
+
+
+    /*---- Fields ----*/
+
+    // The underlying byte output stream (not null).
+    private final OutputStream output;
+
+    // Low end of the range, 32 bits plus a possible carry at bit 32.
+    private long low;
+
+    // Size of the range, an unsigned 32-bit value.
+    private int range;
+
+    // The last byte shifted out, held back in case a carry reaches it; -1 before the first one.
+    private int cache;
+
+    // Number of 0xFF bytes held back after 'cache'.
+    private long pending;
+
+
+
+    /*---- Constructor ----*/
+
+    /**
+     * Constructs a binary encoder that writes to the specified byte output stream.
+     *
+     * @param out the byte output stream to write to
+     * @throws NullPointerException if the output stream is {@code null}
+     */
+    public BinaryEncoder(OutputStream out) {
+        output = Objects.requireNonNull(out);
+        low = 0;
+        range = -1;
+        cache = -1;
+        pending = 0;
+    }
+
+
+
+    /*---- Methods ----*/
+
+    /**
+     * Encodes the specified bit with the probability at the specified index, then adapts the probability to it.
+     *
+     * @param probabilities the probabilities of 0 bits, each in (0, 2^12)
+     * @param index         the index of the probability to use
+     * @param bit           the bit to encode, 0 or 1
+     * @throws IOException if an I/O exception occurred
+     */
+    public void encode(short[] probabilities, int index, int bit) throws IOException {
+        int probability = probabilities[index];
+        int bound = (range >>> PROBABILITY_BITS) * probability;
+        if (bit == 0) {
+            range = bound;
+            probabilities[index] =
+                    (short) (probability + (((1 << PROBABILITY_BITS) - probability) >>> ADAPTATION_SHIFT));
+        } else {
+            low += bound & 0xFFFFFFFFL;
+            range -= bound;
+            probabilities[index] = (short) (probability - (probability >>> ADAPTATION_SHIFT));
+        }
+        while (Integer.compareUnsigned(range, TOP) < 0) {
+            range <<= 8;
+            shiftLow();
+        }
+    }
+
+
+    /**
+     * Encodes the lowest {@code count} bits of the specified value, most significant first, each at probability 1/2.
+     *
+     * @param value the bits to encode
+     * @param count the number of bits, in [0, 31]
+     * @throws IOException if an I/O exception occurred
+     */
+    public void encodeDirect(int value, int count) throws IOException {
+        for (int i = count - 1; i >= 0; i--) {
+            range >>>= 1;
+            if (((value >>> i) & 1) != 0)
+                low += range & 0xFFFFFFFFL;
+            while (Integer.compareUnsigned(range, TOP) < 0) {
+                range <<= 8;
+                shiftLow();
+            }
+        }
+    }
+
+
+    /**
+     * Terminates the coding by flushing the bytes still held back, so that the output can be decoded properly.
+     * The value written is rounded so that everything after its top byte is zero and left out,
+     * as the decoder reads zeros past the end of its input.
+     * <p>Note that this method merely writes data to the underlying output stream but does not close it.</p>
+     *
+     * @throws IOException if an I/O exception occurred
+     */
+    public void finish() throws IOException {
+        // Round up to a multiple of TOP, which stays below low + range since range >= TOP
+        low = (low + TOP - 1) & -(long) TOP;
+        shiftLow();
+        shiftLow();
+    }
+
+
+    // Moves the top byte of the low end out, writing out whatever can no longer receive a carry.
+    private void shiftLow() throws IOException {
+        if (low < 0xFF000000L || low > 0xFFFFFFFFL) {
+            int carry = (int) (low >>> 32);
+            if (cache >= 0)
+                output.write((cache + carry) & 0xFF);
+            for (; pending > 0; pending--)
+                output.write((0xFF + carry) & 0xFF);
+            cache = (int) (low >>> 24) & 0xFF;
+        } else
+            pending++;
+        low = (low & 0xFFFFFF) << 8;
+    }
+
+}
@@ -0,0 +1,171 @@
+package arithmetic;
+
+import java.util.Objects;
+
+
+/**
+ * A mutable frequency table whose total never exceeds a limit: whenever an update takes the total past it,
+ * every frequency is halved, rounding up so that no symbol that could be coded drops to zero. Old counts thus
+ * weigh less and less, which lets an adaptive model follow the statistics of the data it is coding at the time,
+ * and keeps the total within what the coders accept however much is coded. The halving depends on nothing but the
+ * updates, so an encoder and a decoder applying the same updates stay in sync. Backed by a
+ * {@link FenwickFrequencyTable}, which is rebuilt in linear time on every halving.
+ */
+public final class DecayingFrequencyTable implements FrequencyTable {
+
+    /*---- Fields ----*/
+
+    // The current frequencies (not null).
+    private FenwickFrequencyTable table;
+
+    // The largest total allowed after an update, at least twice the number of symbols.
+    private final int limit;
+
+
+
+    /*---- Constructor ----*/
+
+    /**
+     * Constructs a decaying frequency table starting from the frequencies of the specified table, halved
+     * right away as many times as it takes to bring their total down to the limit.
+     *
+     * @param freqs the frequency table to copy
+     * @param limit the largest total to keep
+     * @throws NullPointerException     if {@code freqs} is {@code null}
+     * @throws IllegalArgumentException if {@code limit} &lt; 2 &times; {@code freqs.getSymbolLimit()},
+     *                                  below which halving could not always get under it
+     */
+    public DecayingFrequencyTable(FrequencyTable freqs, int limit) {
+        Objects.requireNonNull(freqs);
+        if (limit / 2 < freqs.getSymbolLimit())
+            throw new IllegalArgumentException("Limit too small for the number of symbols");
+        table = new FenwickFrequencyTable(freqs);
+        this.limit = limit;
+        while (table.getTotal() > limit)
+            halve();
+    }
+
+
+
+    /*---- Methods ----*/
+
+    /**
+     * Returns the number of symbols in this frequency table, which is at least 1.
+     *
+     * @return the number of symbols in this frequency table
+     */
+    public int getSymbolLimit() {
+        return table.getSymbolLimit();
+    }
+
+
+    /**
+     * Returns the frequency of the specified symbol. The returned value is at least 0.
+     *
+     * @param symbol the symbol to query
+     * @return the frequency of the specified symbol
+     * @throws IllegalArgumentException if {@code symbol} &lt; 0 or {@code symbol} &ge; {@code getSymbolLimit()}
+     */
+    public int get(int symbol) {
+        return table.get(symbol);
+    }
+
+
+    /**
+     * Sets the frequency of the specified symbol to the specified value, then halves all frequencies
+     * if the total has gone past the limit.
+     *
+     * @param symbol the symbol to set
+     * @param freq   the frequency value to set
+     * @throws IllegalArgumentException if {@code symbol} &lt; 0 or {@code symbol} &ge; {@code getSymbolLimit()}
+     *                                  or {@code freq} &lt; 0
+     * @throws ArithmeticException      if this set request would cause the total to exceed {@code Integer.MAX_VALUE}
+     */
+    public void set(int symbol, int freq) {
+        table.set(symbol, freq);
+        while (table.getTotal() > limit)
+            halve();
+    }
+
+
+    /**
+     * Increments the frequency of the specified symbol, then halves all frequencies
+     * if the total has gone past the limit.
+     *
+     * @param symbol the symbol whose frequency to increment
+     * @throws IllegalArgumentException if {@code symbol} &lt; 0 or {@code symbol} &ge; {@code getSymbolLimit()}
+     */
+    public void increment(int symbol) {
+        table.increment(symbol);
+        if (table.getTotal() > limit)
+            halve();
+    }
+
+
+    /**
+     * Returns the total of all symbol frequencies, which is at most the limit.
+     *
+     * @return the total of all symbol frequencies
+     */
+    public int getTotal() {
+        return table.getTotal();
+    }
+
+
+    /**
+     * Returns the sum of the frequencies of all the symbols strictly below the specified symbol value.
+     *
+     * @param symbol the symbol to query
+     * @return the sum of the frequencies of all the symbols below {@code symbol}
+     * @throws IllegalArgumentException if {@code symbol} &lt; 0 or {@code symbol} &ge; {@code getSymbolLimit()}
+     */
+    public int getLow(int symbol) {
+        return table.getLow(symbol);
+    }
+
+
+    /**
+     * Returns the sum of the frequencies of the specified symbol and all the symbols below.
+     *
+     * @param symbol the symbol to query
+     * @return the sum of the frequencies of {@code symbol} and all symbols below
+     * @throws IllegalArgumentException if {@code symbol} &lt; 0 or {@code symbol} &ge; {@code getSymbolLimit()}
+     */
+    public int getHigh(int symbol) {
+        return table.getHigh(symbol);
+    }
+
+
+    /**
+     * Returns the symbol whose range [{@code getLow(symbol)}, {@code getHigh(symbol)}) contains
+     * the specified value.
+     *
+     * @param value the cumulative frequency to look up
+     * @return the symbol covering {@code value}
+     * @throws IllegalArgumentException if {@code value} &lt; 0 or {@code value} &ge; {@code getTotal()}
+     */
+    public int getSymbol(int value) {
+        return table.getSymbol(value);
+    }
+
+
+    // Halves every frequency, rounding up so that non-zero ones stay non-zero.
+    private void halve() {
+        int[] freqs = new int[table.getSymbolLimit()];
+        for (int i = 0; i < freqs.length; i++)
+            freqs[i] = (table.get(i) + 1) >>> 1;
+        table = new FenwickFrequencyTable(freqs);
+    }
+
+
+    /**
+     * Returns a string representation of this frequency table,
+     * useful for debugging only, and the format is subject to change.
+     *
+     * @return a string representation of this frequency table
+     */
+    public String toString() {
+        return table.toString();
+    }
+
+}
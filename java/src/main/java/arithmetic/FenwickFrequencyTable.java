@@ -0,0 +1,264 @@
+package arithmetic;
+
+import java.util.Objects;
+
+
+/**
+ * A mutable table of symbol frequencies backed by a Fenwick tree (binary indexed tree).
+ * The number of symbols cannot be changed after construction. Updates, cumulative
+ * frequency queries and symbol lookups all take logarithmic time, which makes this
+ * table suitable for adaptive models over large alphabets.
+ */
+public final class FenwickFrequencyTable implements FrequencyTable {
+
+    /*---- Fields ----*/
+
+    // The frequency for each symbol. Its length is at least 1, and each element is non-negative.
+    private final int[] frequencies;
+
+    // The Fenwick tree, 1-based: tree[i] is the sum of 'frequencies' from i - lowestOneBit(i) (inclusive)
+    // to i (exclusive). tree[0] is unused.
+    private final int[] tree;
+
+    // The highest power of 2 not exceeding frequencies.length, where symbol lookups start descending.
+    private final int topStep;
+
+    // Always equal to the sum of 'frequencies'.
+    private int total;
+
+
+
+    /*---- Constructors ----*/
+
+    /**
+     * Constructs a frequency table from the specified array of symbol frequencies. There must be at least
+     * 1 symbol, no symbol has a negative frequency, and the total must not exceed {@code Integer.MAX_VALUE}.
+     *
+     * @param freqs the array of symbol frequencies
+     * @throws NullPointerException     if the array is {@code null}
+     * @throws IllegalArgumentException if {@code freqs.length} &lt; 1,
+     *                                  {@code freqs.length} = {@code Integer.MAX_VALUE}, or any element {@code freqs[i]} &lt; 0
+     * @throws ArithmeticException      if the total of {@code freqs} exceeds {@code Integer.MAX_VALUE}
+     */
+    public FenwickFrequencyTable(int[] freqs) {
+        Objects.requireNonNull(freqs);
+        if (freqs.length < 1)
+            throw new IllegalArgumentException("At least 1 symbol needed");
+        if (freqs.length > Integer.MAX_VALUE - 1)
+            throw new IllegalArgumentException("Too many symbols");
+
+        frequencies = freqs.clone();  // Make copy
+        tree = new int[frequencies.length + 1];
+        topStep = Integer.highestOneBit(frequencies.length);
+        build();
+    }
+
+
+    /**
+     * Constructs a frequency table by copying the specified frequency table.
+     *
+     * @param freqs the frequency table to copy
+     * @throws NullPointerException     if {@code freqs} is {@code null}
+     * @throws IllegalArgumentException if {@code freqs.getSymbolLimit()} &lt; 1
+     *                                  or any element {@code freqs.get(i)} &lt; 0
+     * @throws ArithmeticException      if the total of all {@code freqs} elements exceeds {@code Integer.MAX_VALUE}
+     */
+    public FenwickFrequencyTable(FrequencyTable freqs) {
+        Objects.requireNonNull(freqs);
+        int numSym = freqs.getSymbolLimit();
+        if (numSym < 1)
+            throw new IllegalArgumentException("At least 1 symbol needed");
+
+        frequencies = new int[numSym];
+        for (int i = 0; i < frequencies.length; i++)
+            frequencies[i] = freqs.get(i);
+        tree = new int[frequencies.length + 1];
+        topStep = Integer.highestOneBit(frequencies.length);
+        build();
+    }
+
+
+
+    /*---- Methods ----*/
+
+    /**
+     * Returns the number of symbols in this frequency table, which is at least 1.
+     *
+     * @return the number of symbols in this frequency table
+     */
+    public int getSymbolLimit() {
+        return frequencies.length;
+    }
+
+
+    /**
+     * Returns the frequency of the specified symbol. The returned value is at least 0.
+     *
+     * @param symbol the symbol to query
+     * @return the frequency of the specified symbol
+     * @throws IllegalArgumentException if {@code symbol} &lt; 0 or {@code symbol} &ge; {@code getSymbolLimit()}
+     */
+    public int get(int symbol) {
+        checkSymbol(symbol);
+        return frequencies[symbol];
+    }
+
+
+    /**
+     * Sets the frequency of the specified symbol to the specified value. The frequency value
+     * must be at least 0. If an exception is thrown, then the state is left unchanged.
+     *
+     * @param symbol the symbol to set
+     * @param freq   the frequency value to set
+     * @throws IllegalArgumentException if {@code symbol} &lt; 0 or {@code symbol} &ge; {@code getSymbolLimit()}
+     * @throws ArithmeticException      if this set request would cause the total to exceed {@code Integer.MAX_VALUE}
+     */
+    public void set(int symbol, int freq) {
+        checkSymbol(symbol);
+        if (freq < 0)
+            throw new IllegalArgumentException("Negative frequency");
+
+        int temp = total - frequencies[symbol];
+        if (temp < 0)
+            throw new AssertionError();
+        total = checkedAdd(temp, freq);
+        add(symbol, freq - frequencies[symbol]);
+        frequencies[symbol] = freq;
+    }
+
+
+    /**
+     * Increments the frequency of the specified symbol.
+     *
+     * @param symbol the symbol whose frequency to increment
+     * @throws IllegalArgumentException if {@code symbol} &lt; 0 or {@code symbol} &ge; {@code getSymbolLimit()}
+     */
+    public void increment(int symbol) {
+        checkSymbol(symbol);
+        if (frequencies[symbol] == Integer.MAX_VALUE)
+            throw new ArithmeticException("Arithmetic overflow");
+        total = checkedAdd(total, 1);
+        frequencies[symbol]++;
+        add(symbol, 1);
+    }
+
+
+    /**
+     * Returns the total of all symbol frequencies. The returned value is at
+     * least 0 and is always equal to {@code getHigh(getSymbolLimit() - 1)}.
+     *
+     * @return the total of all symbol frequencies
+     */
+    public int getTotal() {
+        return total;
+    }
+
+
+    /**
+     * Returns the sum of the frequencies of all the symbols strictly
+     * below the specified symbol value. The returned value is at least 0.
+     *
+     * @param symbol the symbol to query
+     * @return the sum of the frequencies of all the symbols below {@code symbol}
+     * @throws IllegalArgumentException if {@code symbol} &lt; 0 or {@code symbol} &ge; {@code getSymbolLimit()}
+     */
+    public int getLow(int symbol) {
+        checkSymbol(symbol);
+        int sum = 0;
+        for (int i = symbol; i > 0; i &= i - 1)
+            sum += tree[i];
+        return sum;
+    }
+
+
+    /**
+     * Returns the sum of the frequencies of the specified symbol
+     * and all the symbols below. The returned value is at least 0.
+     *
+     * @param symbol the symbol to query
+     * @return the sum of the frequencies of {@code symbol} and all symbols below
+     * @throws IllegalArgumentException if {@code symbol} &lt; 0 or {@code symbol} &ge; {@code getSymbolLimit()}
+     */
+    public int getHigh(int symbol) {
+        return getLow(symbol) + frequencies[symbol];
+    }
+
+
+    /**
+     * Returns the symbol whose range [{@code getLow(symbol)}, {@code getHigh(symbol)}) contains
+     * the specified value, by descending the tree in logarithmic time.
+     *
+     * @param value the cumulative frequency to look up
+     * @return the symbol covering {@code value}
+     * @throws IllegalArgumentException if {@code value} &lt; 0 or {@code value} &ge; {@code getTotal()}
+     */
+    public int getSymbol(int value) {
+        if (value < 0 || value >= total)
+            throw new IllegalArgumentException("Value out of range");
+        // Find the largest index whose prefix sum is at most value; that index is the symbol
+        int index = 0;
+        for (int step = topStep; step > 0; step >>>= 1) {
+            int next = index + step;
+            if (next < tree.length && tree[next] <= value) {
+                index = next;
+                value -= tree[next];
+            }
+        }
+        return index;
+    }
+
+
+    // Fills the tree from 'frequencies' in linear time, and computes the total.
+    private void build() {
+        total = 0;
+        for (int i = 0; i < frequencies.length; i++) {
+            int x = frequencies[i];
+            if (x < 0)
+                throw new IllegalArgumentException("Negative frequency");
+            total = checkedAdd(x, total);
+            tree[i + 1] += x;
+            int parent = (i + 1) + ((i + 1) & -(i + 1));
+            if (parent < tree.length)
+                tree[parent] += tree[i + 1];
+        }
+    }
+
+
+    // Adds delta to the frequency of the symbol in the tree. The total has already been checked for overflow.
+    private void add(int symbol, int delta) {
+        for (int i = symbol + 1; i < tree.length; i += i & -i)
+            tree[i] += delta;
+    }
+
+
+    // Returns silently if 0 <= symbol < frequencies.length, otherwise throws an exception.
+    private void checkSymbol(int symbol) {
+        if (symbol < 0 || symbol >= frequencies.length)
+            throw new IllegalArgumentException("Symbol out of range");
+    }
+
+
+    /**
+     * Returns a string representation of this frequency table,
+     * useful for debugging only, and the format is subject to change.
+     *
+     * @return a string representation of this frequency table
+     */
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < frequencies.length; i++)
+            sb.append(String.format("%d\t%d%n", i, frequencies[i]));
+        return sb.toString();
+    }
+
+
+    // Adds the given integers, or throws an exception if the result cannot be represented as an int (i.e. overflow).
+    private static int checkedAdd(int x, int y) {
+        int z = x + y;
+        if (y > 0 && z < x || y < 0 && z > x)
+            throw new ArithmeticException("Arithmetic overflow");
+        else
+            return z;
+    }
+
+}
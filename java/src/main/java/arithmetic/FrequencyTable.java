@@ -86,4 +86,31 @@ public interface FrequencyTable {
      */
     public int getHigh(int symbol);
 
+
+    /**
+     * Returns the symbol whose range [{@code getLow(symbol)}, {@code getHigh(symbol)}) contains the
+     * specified value, i.e. the highest symbol such that {@code getLow(symbol)} &le; {@code value}.
+     * This default implementation does a binary search over {@link #getLow(int)}.
+     *
+     * @param value the cumulative frequency to look up
+     * @return the symbol covering {@code value}
+     * @throws IllegalArgumentException if {@code value} &lt; 0 or {@code value} &ge; {@code getTotal()}
+     */
+    public default int getSymbol(int value) {
+        if (value < 0 || value >= getTotal())
+            throw new IllegalArgumentException("Value out of range");
+        int start = 0;
+        int end = getSymbolLimit();
+        while (end - start > 1) {
+            int middle = (start + end) >>> 1;
+            if (getLow(middle) > value)
+                end = middle;
+            else
+                start = middle;
+        }
+        if (start + 1 != end)
+            throw new AssertionError();
+        return start;
+    }
+
 }
@@ -0,0 +1,116 @@
+/*
+ * QM-coder of ITU-T T.81 Annex D, decoding side
+ * Ported from arith_decode() in jdarith.c of the Independent JPEG Group's software (libjpeg), developed by
+ * Guido Vollbeding.
+ *
+ * This software is based in part on the work of the Independent JPEG Group.
+ *
+ * https://www.ijg.org/
+ * https://www.w3.org/Graphics/JPEG/itu-t81.pdf
+ */
+package arithmetic;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+
+
+/**
+ * Reads from a byte stream written by {@link QmEncoder}, or by any other T.81 arithmetic coder, and decodes bits,
+ * moving the caller's context states on the same way the encoder did. The input must come with stuffed 0x00 bytes
+ * already removed. Not thread-safe.
+ *
+ * @see QmEncoder
+ */
+public final class QmDecoder {
+
+    /*---- Fields ----*/
+
+    // The underlying byte input stream (not null).
+    private final InputStream input;
+
+    // The code register C of D.2.3, with the bits still to be compared with the interval 'count' bits above 'a'.
+    private int c;
+
+    // The interval register A, 0 until the first two bytes are in.
+    private int a;
+
+    // Bits in 'c' below the part aligned with 'a', negative while the first two bytes are read.
+    private int count;
+
+
+
+    /*---- Constructor ----*/
+
+    /**
+     * Constructs a QM decoder that reads from the specified byte input stream. Nothing is read until the first bit.
+     *
+     * @param in the byte input stream to read from
+     * @throws NullPointerException if the input stream is {@code null}
+     */
+    public QmDecoder(InputStream in) {
+        input = Objects.requireNonNull(in);
+        c = 0;
+        a = 0;
+        count = -16;
+    }
+
+
+
+    /*---- Methods ----*/
+
+    /**
+     * Decodes the next bit in the context at the specified index, then moves its state on (D.2.4, D.2.5).
+     *
+     * @param states the context states, as given to the encoder
+     * @param index  the index of the context to use
+     * @return the bit, 0 or 1
+     * @throws IOException if an I/O exception occurred
+     */
+    public int decode(byte[] states, int index) throws IOException {
+        // Renormalization, D.2.6
+        while (a < 0x8000) {
+            if (--count < 0) {
+                c = c << 8 | readByte();
+                if ((count += 8) < 0 && ++count == 0)
+                    a = 0x8000;  // the first two bytes are in, a becomes 0x10000 below
+            }
+            a <<= 1;
+        }
+        int state = states[index] & 0xFF;
+        int entry = QmEncoder.STATES[state & 0x7F];
+        int qe = entry >>> 16;
+        a -= qe;
+        int bound = a << count;
+        if (c >= bound) {
+            // Upper subinterval, which holds the less probable symbol unless it is the larger one
+            c -= bound;
+            if (a < qe) {
+                a = qe;
+                states[index] = (byte) ((state & 0x80) ^ ((entry >>> 8) & 0xFF));
+            } else {
+                a = qe;
+                states[index] = (byte) ((state & 0x80) ^ (entry & 0xFF));
+                state ^= 0x80;
+            }
+        } else if (a < 0x8000) {
+            if (a < qe) {
+                states[index] = (byte) ((state & 0x80) ^ (entry & 0xFF));
+                state ^= 0x80;
+            } else
+                states[index] = (byte) ((state & 0x80) ^ ((entry >>> 8) & 0xFF));
+        }
+        return state >>> 7;
+    }
+
+
+    // Returns the next byte from the input stream. The end of
+    // stream is treated as an infinite number of trailing zeros.
+    private int readByte() throws IOException {
+        int temp = input.read();
+        if (temp == -1)
+            temp = 0;
+        return temp;
+    }
+
+}
@@ -0,0 +1,237 @@
+/*
+ * QM-coder of ITU-T T.81 Annex D, encoding side
+ * Ported from arith_encode() and finish_pass() in jcarith.c of the Independent JPEG Group's software (libjpeg),
+ * developed by Guido Vollbeding.
+ *
+ * This software is based in part on the work of the Independent JPEG Group.
+ *
+ * https://www.ijg.org/
+ * https://www.w3.org/Graphics/JPEG/itu-t81.pdf
+ */
+package arithmetic;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Objects;
+
+
+/**
+ * Encodes bits with the QM-coder of ITU-T T.81 Annex D, the arithmetic coder of standard JPEG (SOF9 and up).
+ * Every probability estimate is a state of the Table D.2 state machine, one byte per context kept by the caller:
+ * the state index in the low 7 bits and the more probable symbol in bit 7, starting at 0. The bytes written still
+ * need 0x00 stuffed after every 0xFF, e.g. by the writer of the entropy-coded segment. Not thread-safe.
+ *
+ * @see QmDecoder
+ */
+public final class QmEncoder {
+
+    /*---- Constants ----*/
+
+    /**
+     * A state whose estimate stays at 1/2 for good, for bits that are not worth adapting to such as signs.
+     */
+    public static final byte FIXED_STATE = 113;
+
+    // Table D.2 packed as in the IJG library: Qe << 16 | Next_Index_MPS << 8 | Switch_MPS << 7 | Next_Index_LPS,
+    // followed by FIXED_STATE.
+    static final int[] STATES = pack(new int[][]{
+            // Qe, Next_Index_LPS, Next_Index_MPS, Switch_MPS
+            {0x5a1d, 1, 1, 1}, {0x2586, 14, 2, 0}, {0x1114, 16, 3, 0}, {0x080b, 18, 4, 0},
+            {0x03d8, 20, 5, 0}, {0x01da, 23, 6, 0}, {0x00e5, 25, 7, 0}, {0x006f, 28, 8, 0},
+            {0x0036, 30, 9, 0}, {0x001a, 33, 10, 0}, {0x000d, 35, 11, 0}, {0x0006, 9, 12, 0},
+            {0x0003, 10, 13, 0}, {0x0001, 12, 13, 0}, {0x5a7f, 15, 15, 1}, {0x3f25, 36, 16, 0},
+            {0x2cf2, 38, 17, 0}, {0x207c, 39, 18, 0}, {0x17b9, 40, 19, 0}, {0x1182, 42, 20, 0},
+            {0x0cef, 43, 21, 0}, {0x09a1, 45, 22, 0}, {0x072f, 46, 23, 0}, {0x055c, 48, 24, 0},
+            {0x0406, 49, 25, 0}, {0x0303, 51, 26, 0}, {0x0240, 52, 27, 0}, {0x01b1, 54, 28, 0},
+            {0x0144, 56, 29, 0}, {0x00f5, 57, 30, 0}, {0x00b7, 59, 31, 0}, {0x008a, 60, 32, 0},
+            {0x0068, 62, 33, 0}, {0x004e, 63, 34, 0}, {0x003b, 32, 35, 0}, {0x002c, 33, 9, 0},
+            {0x5ae1, 37, 37, 1}, {0x484c, 64, 38, 0}, {0x3a0d, 65, 39, 0}, {0x2ef1, 67, 40, 0},
+            {0x261f, 68, 41, 0}, {0x1f33, 69, 42, 0}, {0x19a8, 70, 43, 0}, {0x1518, 72, 44, 0},
+            {0x1177, 73, 45, 0}, {0x0e74, 74, 46, 0}, {0x0bfb, 75, 47, 0}, {0x09f8, 77, 48, 0},
+            {0x0861, 78, 49, 0}, {0x0706, 79, 50, 0}, {0x05cd, 48, 51, 0}, {0x04de, 50, 52, 0},
+            {0x040f, 50, 53, 0}, {0x0363, 51, 54, 0}, {0x02d4, 52, 55, 0}, {0x025c, 53, 56, 0},
+            {0x01f8, 54, 57, 0}, {0x01a4, 55, 58, 0}, {0x0160, 56, 59, 0}, {0x0125, 57, 60, 0},
+            {0x00f6, 58, 61, 0}, {0x00cb, 59, 62, 0}, {0x00ab, 61, 63, 0}, {0x008f, 61, 32, 0},
+            {0x5b12, 65, 65, 1}, {0x4d04, 80, 66, 0}, {0x412c, 81, 67, 0}, {0x37d8, 82, 68, 0},
+            {0x2fe8, 83, 69, 0}, {0x293c, 84, 70, 0}, {0x2379, 86, 71, 0}, {0x1edf, 87, 72, 0},
+            {0x1aa9, 87, 73, 0}, {0x174e, 72, 74, 0}, {0x1424, 72, 75, 0}, {0x119c, 74, 76, 0},
+            {0x0f6b, 74, 77, 0}, {0x0d51, 75, 78, 0}, {0x0bb6, 77, 79, 0}, {0x0a40, 77, 48, 0},
+            {0x5832, 80, 81, 1}, {0x4d1c, 88, 82, 0}, {0x438e, 89, 83, 0}, {0x3bdd, 90, 84, 0},
+            {0x34ee, 91, 85, 0}, {0x2eae, 92, 86, 0}, {0x299a, 93, 87, 0}, {0x2516, 86, 71, 0},
+            {0x5570, 88, 89, 1}, {0x4ca9, 95, 90, 0}, {0x44d9, 96, 91, 0}, {0x3e22, 97, 92, 0},
+            {0x3824, 99, 93, 0}, {0x32b4, 99, 94, 0}, {0x2e17, 93, 86, 0}, {0x56a8, 95, 96, 1},
+            {0x4f46, 101, 97, 0}, {0x47e5, 102, 98, 0}, {0x41cf, 103, 99, 0}, {0x3c3d, 104, 100, 0},
+            {0x375e, 99, 93, 0}, {0x5231, 105, 102, 0}, {0x4c0f, 106, 103, 0}, {0x4639, 107, 104, 0},
+            {0x415e, 103, 99, 0}, {0x5627, 105, 106, 1}, {0x50e7, 108, 107, 0}, {0x4b85, 109, 103, 0},
+            {0x5597, 110, 109, 0}, {0x504f, 111, 107, 0}, {0x5a10, 110, 111, 1}, {0x5522, 112, 109, 0},
+            {0x59eb, 112, 111, 1},
+            {0x5a1d, 113, 113, 0},
+    });
+
+
+
+    /*---- Fields ----*/
+
+    // The underlying byte output stream (not null).
+    private final OutputStream output;
+
+    // The code register C of D.1.3: 8 bits about to be output above 3 spacer bits and 16 bits aligned with 'a'.
+    private int c;
+
+    // The interval register A, kept in [0x8000, 0x10000] between bits.
+    private int a;
+
+    // Number of 0xFF bytes held back after 'buffer', as a carry would turn them into 0x00.
+    private int stacked;
+
+    // Number of 0x00 bytes held back after 'buffer'. They are dropped when nothing but zeros follows.
+    private int zeros;
+
+    // Shifts left until the next byte is ready in 'c'.
+    private int count;
+
+    // The last byte completed, held back in case a carry reaches it; -1 before the first one.
+    private int buffer;
+
+
+
+    /*---- Constructor ----*/
+
+    /**
+     * Constructs a QM encoder that writes to the specified byte output stream.
+     *
+     * @param out the byte output stream to write to
+     * @throws NullPointerException if the output stream is {@code null}
+     */
+    public QmEncoder(OutputStream out) {
+        output = Objects.requireNonNull(out);
+        c = 0;
+        a = 0x10000;
+        stacked = 0;
+        zeros = 0;
+        count = 11;
+        buffer = -1;
+    }
+
+
+
+    /*---- Methods ----*/
+
+    /**
+     * Encodes the specified bit in the context at the specified index, then moves its state on (D.1.4, D.1.5).
+     *
+     * @param states the context states
+     * @param index  the index of the context to use
+     * @param bit    the bit to encode, 0 or 1
+     * @throws IOException if an I/O exception occurred
+     */
+    public void encode(byte[] states, int index, int bit) throws IOException {
+        int state = states[index] & 0xFF;
+        int entry = STATES[state & 0x7F];
+        int qe = entry >>> 16;
+        a -= qe;
+        if (bit != state >>> 7) {
+            // Less probable symbol, coded in the upper subinterval unless that is the smaller one
+            if (a >= qe) {
+                c += a;
+                a = qe;
+            }
+            states[index] = (byte) ((state & 0x80) ^ (entry & 0xFF));
+        } else {
+            if (a >= 0x8000)
+                return;
+            if (a < qe) {
+                c += a;
+                a = qe;
+            }
+            states[index] = (byte) ((state & 0x80) ^ ((entry >>> 8) & 0xFF));
+        }
+        // Renormalization, D.1.6
+        do {
+            a <<= 1;
+            c <<= 1;
+            if (--count == 0) {
+                int next = c >>> 19;
+                if (next > 0xFF) {
+                    // The carry turns the stacked 0xFF bytes into 0x00
+                    if (buffer >= 0) {
+                        writeZeros();
+                        output.write(buffer + 1);
+                    }
+                    zeros += stacked;
+                    stacked = 0;
+                    buffer = next & 0xFF;  // cannot be 0xFF thanks to the spacer bits
+                } else if (next == 0xFF) {
+                    stacked++;
+                } else {
+                    flushBuffer();
+                    buffer = next;
+                }
+                c &= 0x7FFFF;
+                count += 8;
+            }
+        } while (a < 0x8000);
+    }
+
+
+    /**
+     * Terminates the coding as in D.1.8, picking the value in the final interval with the most trailing zeros
+     * and leaving out the zero bytes at the end, which the decoder supplies anyway.
+     * <p>Note that this method merely writes data to the underlying output stream but does not close it.</p>
+     *
+     * @throws IOException if an I/O exception occurred
+     */
+    public void finish() throws IOException {
+        int value = (a - 1 + c) & 0xFFFF0000;
+        c = value < c ? value + 0x8000 : value;
+        c <<= count;
+        if ((c & 0xF8000000) != 0) {
+            if (buffer >= 0) {
+                writeZeros();
+                output.write(buffer + 1);
+            }
+            zeros += stacked;
+            stacked = 0;
+        } else
+            flushBuffer();
+        if ((c & 0x7FFF800) != 0) {
+            writeZeros();
+            output.write((c >>> 19) & 0xFF);
+            if ((c & 0x7F800) != 0)
+                output.write((c >>> 11) & 0xFF);
+        }
+    }
+
+
+    // Writes out the buffered byte and the 0xFF bytes stacked behind it, which no carry can reach any more.
+    // A zero byte is held back too, in case only zeros follow.
+    private void flushBuffer() throws IOException {
+        if (buffer == 0)
+            zeros++;
+        else if (buffer > 0) {
+            writeZeros();
+            output.write(buffer);
+        }
+        if (stacked > 0) {
+            writeZeros();
+            for (; stacked > 0; stacked--)
+                output.write(0xFF);
+        }
+    }
+
+
+    // Writes out the zero bytes held back.
+    private void writeZeros() throws IOException {
+        for (; zeros > 0; zeros--)
+            output.write(0);
+    }
+
+
+    private static int[] pack(int[][] table) {
+        int[] states = new int[table.length];
+        for (int i = 0; i < table.length; i++)
+            states[i] = table[i][0] << 16 | table[i][2] << 8 | table[i][3] << 7 | table[i][1];
+        return states;
+    }
+
+}
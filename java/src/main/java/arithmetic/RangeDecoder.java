@@ -0,0 +1,87 @@
+package arithmetic;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+
+
+/**
+ * Reads from a byte stream written by {@link RangeEncoder} and decodes symbols. Not thread-safe.
+ *
+ * @see RangeEncoder
+ */
+public final class RangeDecoder implements SymbolDecoder {
+
+    /*---- Fields ----*/
+
+    // The underlying byte input stream (not null).
+    private final InputStream input;
+
+    // Offset of the coded value from the low end of the range, always less than 'range'.
+    private long code;
+
+    // Size of the range, mirroring the encoder's.
+    private long range;
+
+
+
+    /*---- Constructor ----*/
+
+    /**
+     * Constructs a range decoder that reads from the specified byte input stream.
+     * The window's worth of bytes is read right away.
+     *
+     * @param in the byte input stream to read from
+     * @throws NullPointerException if the input stream is {@code null}
+     * @throws IOException          if an I/O exception occurred
+     */
+    public RangeDecoder(InputStream in) throws IOException {
+        input = Objects.requireNonNull(in);
+        code = 0;
+        range = (1L << RangeEncoder.WINDOW) - 1;
+        for (int i = 0; i < RangeEncoder.WINDOW / 8; i++)
+            code = code << 8 | readByte();
+    }
+
+
+
+    /*---- Methods ----*/
+
+    /**
+     * Decodes the next symbol based on the specified frequency table and returns it.
+     * Also updates this coder's state and may read in some bytes.
+     *
+     * @param freqs the frequency table to use
+     * @return the next symbol
+     * @throws NullPointerException     if the frequency table is {@code null}
+     * @throws IllegalArgumentException if the frequency table's total is too large
+     * @throws IOException              if an I/O exception occurred
+     */
+    public int read(FrequencyTable freqs) throws IOException {
+        long total = freqs.getTotal();
+        if (total > RangeEncoder.MAXIMUM_TOTAL)
+            throw new IllegalArgumentException("Cannot decode symbol because total is too large");
+        long r = range / total;
+        // Past the last full multiple of r the encoder never goes, unless the input is corrupt
+        int symbol = freqs.getSymbol((int) Math.min(code / r, total - 1));
+        long symLow = freqs.getLow(symbol);
+        code -= r * symLow;
+        range = r * (freqs.getHigh(symbol) - symLow);
+        while (range <= RangeEncoder.BOTTOM) {
+            code = code << 8 | readByte();
+            range <<= 8;
+        }
+        return symbol;
+    }
+
+
+    // Returns the next byte from the input stream. The end
+    // of stream is treated as an infinite number of trailing zeros.
+    private int readByte() throws IOException {
+        int temp = input.read();
+        if (temp == -1)
+            temp = 0;
+        return temp;
+    }
+
+}
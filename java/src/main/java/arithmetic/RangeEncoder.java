@@ -0,0 +1,132 @@
+package arithmetic;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Objects;
+
+
+/**
+ * Encodes symbols into a byte stream with a range coder that renormalizes a byte at a time, in the style of
+ * LZMA's. Where {@link ArithmeticEncoder} emits one bit per shift and replays underflow bits one by one,
+ * this coder keeps a 56-bit window of the low end, emits its top byte whenever the range drops to 48 bits,
+ * and resolves carries by holding back the last byte and any run of 0xFF bytes behind it. Not thread-safe.
+ *
+ * @see RangeDecoder
+ */
+public final class RangeEncoder implements SymbolEncoder {
+
+    /*---- Constants ----*/
+
+    // Width of the window on the low end of the range, in bits. Bit WINDOW of 'low' is the carry.
+    static final int WINDOW = 56;
+
+    // The range is renormalized to stay above this, which keeps 'range / total' at 2^18 or more.
+    static final long BOTTOM = 1L << (WINDOW - 8);
+
+    // Frequency totals up to this are supported, the same as a 32-bit ArithmeticEncoder.
+    static final long MAXIMUM_TOTAL = 1L << 30;
+
+    private static final long WINDOW_MASK = (1L << WINDOW) - 1;
+
+
+
+    /*---- Fields ----*/
+
+    // The underlying byte output stream (not null).
+    private final OutputStream output;
+
+    // Low end of the range, within the window, plus a possible carry at bit WINDOW.
+    private long low;
+
+    // Size of the range, always in (BOTTOM, 2^WINDOW).
+    private long range;
+
+    // The last byte shifted out, held back in case a carry reaches it; -1 before the first one.
+    private int cache;
+
+    // Number of 0xFF bytes held back after 'cache'.
+    private long pending;
+
+
+
+    /*---- Constructor ----*/
+
+    /**
+     * Constructs a range encoder that writes to the specified byte output stream.
+     *
+     * @param out the byte output stream to write to
+     * @throws NullPointerException if the output stream is {@code null}
+     */
+    public RangeEncoder(OutputStream out) {
+        output = Objects.requireNonNull(out);
+        low = 0;
+        range = WINDOW_MASK;
+        cache = -1;
+        pending = 0;
+    }
+
+
+
+    /*---- Methods ----*/
+
+    /**
+     * Encodes the specified symbol based on the specified frequency table.
+     * This updates this coder's state and may write out some bytes.
+     *
+     * @param freqs  the frequency table to use
+     * @param symbol the symbol to encode
+     * @throws NullPointerException     if the frequency table is {@code null}
+     * @throws IllegalArgumentException if the symbol has zero frequency
+     *                                  or the frequency table's total is too large
+     * @throws IOException              if an I/O exception occurred
+     */
+    public void write(FrequencyTable freqs, int symbol) throws IOException {
+        long total = freqs.getTotal();
+        if (total > MAXIMUM_TOTAL)
+            throw new IllegalArgumentException("Cannot code symbol because total is too large");
+        long symLow = freqs.getLow(symbol);
+        long symHigh = freqs.getHigh(symbol);
+        if (symLow == symHigh)
+            throw new IllegalArgumentException("Symbol has zero frequency");
+
+        long r = range / total;
+        low += r * symLow;
+        range = r * (symHigh - symLow);
+        while (range <= BOTTOM) {
+            range <<= 8;
+            shiftLow();
+        }
+    }
+
+
+    /**
+     * Terminates the coding by flushing the bytes still held back, so that the output can be decoded properly.
+     * The value written is rounded so that everything after its top byte is zero and left out,
+     * as the decoder reads zeros past the end of its input.
+     * <p>Note that this method merely writes data to the underlying output stream but does not close it.</p>
+     *
+     * @throws IOException if an I/O exception occurred
+     */
+    public void finish() throws IOException {
+        // Round up to a multiple of BOTTOM, which stays below low + range since range > BOTTOM
+        low = (low + BOTTOM - 1) & -BOTTOM;
+        shiftLow();
+        shiftLow();
+    }
+
+
+    // Moves the top byte of the window out, writing out whatever can no longer receive a carry.
+    private void shiftLow() throws IOException {
+        if (low < (0xFFL << (WINDOW - 8)) || low > WINDOW_MASK) {
+            int carry = (int) (low >>> WINDOW);
+            if (cache >= 0)
+                output.write((cache + carry) & 0xFF);
+            for (; pending > 0; pending--)
+                output.write((0xFF + carry) & 0xFF);
+            cache = (int) (low >>> (WINDOW - 8)) & 0xFF;
+        } else
+            pending++;
+        low = (low << 8) & WINDOW_MASK;
+    }
+
+}
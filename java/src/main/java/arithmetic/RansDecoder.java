@@ -0,0 +1,165 @@
+package arithmetic;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+
+/**
+ * Reads from a byte stream written by {@link RansEncoder} and decodes symbols. Every table read up front
+ * has a slot-to-symbol array, so a symbol is found with one lookup and no division.
+ * The frequency tables passed to {@link #read(FrequencyTable)} only name contexts, as for the encoder.
+ * Not thread-safe.
+ *
+ * @see RansEncoder
+ */
+public final class RansDecoder implements SymbolDecoder {
+
+    /*---- Fields ----*/
+
+    // The underlying byte input stream (not null).
+    private final InputStream input;
+
+    // The contexts in the order of first use.
+    private final Map<FrequencyTable, Integer> contexts = new IdentityHashMap<>();
+
+    // Per context: the symbol limit, the scale, the frequency and cumulative start of each symbol,
+    // and the symbol of each of the 2^scale slots.
+    private final int[] symbolLimits;
+    private final int[] scales;
+    private final int[][] freqs;
+    private final int[][] starts;
+    private final int[][] slotSymbols;
+
+    // The last context looked up, which is often the next one too.
+    private FrequencyTable lastTable;
+    private int lastContext;
+
+    private final long[] states = new long[RansEncoder.WAYS];
+    private int next;  // number of symbols decoded
+
+
+
+    /*---- Constructor ----*/
+
+    /**
+     * Constructs an rANS decoder that reads from the specified byte input stream.
+     * The tables and the initial states are read right away.
+     *
+     * @param in the byte input stream to read from
+     * @throws NullPointerException if the input stream is {@code null}
+     * @throws IOException          if an I/O exception occurred
+     */
+    public RansDecoder(InputStream in) throws IOException {
+        input = Objects.requireNonNull(in);
+        int numContexts = readVarint();
+        symbolLimits = new int[numContexts];
+        scales = new int[numContexts];
+        freqs = new int[numContexts][];
+        starts = new int[numContexts][];
+        slotSymbols = new int[numContexts][];
+        for (int c = 0; c < numContexts; c++)
+            readTable(c);
+        for (int w = 0; w < states.length; w++)
+            for (int i = 0; i < 4; i++)
+                states[w] = states[w] << 8 | readByte();
+    }
+
+
+
+    /*---- Methods ----*/
+
+    /**
+     * Decodes the next symbol in the context named by the specified frequency table and returns it.
+     *
+     * @param freqs the frequency table naming the context
+     * @return the next symbol
+     * @throws NullPointerException     if the frequency table is {@code null}
+     * @throws IllegalArgumentException if the context was not written by the encoder,
+     *                                  or its symbol limit differs from the encoder's
+     * @throws IOException              if an I/O exception occurred
+     */
+    public int read(FrequencyTable freqs) throws IOException {
+        int context = context(freqs);
+        int scale = scales[context];
+        int way = next++ % RansEncoder.WAYS;
+        long state = states[way];
+        int slot = (int) state & ((1 << scale) - 1);
+        int symbol = slotSymbols[context][slot];
+        state = this.freqs[context][symbol] * (state >>> scale) + slot - starts[context][symbol];
+        while (state < RansEncoder.LOWER)
+            state = state << 8 | readByte();
+        states[way] = state;
+        return symbol;
+    }
+
+
+    private int context(FrequencyTable freqs) {
+        if (freqs == lastTable)
+            return lastContext;
+        Integer context = contexts.get(Objects.requireNonNull(freqs));
+        if (context == null) {
+            context = contexts.size();
+            if (context >= symbolLimits.length)
+                throw new IllegalArgumentException("More contexts than the encoder wrote");
+            if (freqs.getSymbolLimit() != symbolLimits[context])
+                throw new IllegalArgumentException("Context does not match the encoder's");
+            contexts.put(freqs, context);
+        }
+        lastTable = freqs;
+        lastContext = context;
+        return context;
+    }
+
+
+    private void readTable(int context) throws IOException {
+        int limit = readVarint();
+        int scale = readVarint();
+        if (limit < 1 || scale < 0 || scale > RansEncoder.MAXIMUM_SCALE)
+            throw new IllegalStateException("Invalid rANS table");
+        int[] freqs = new int[limit];
+        int[] starts = new int[limit];
+        int[] slots = new int[1 << scale];
+        int used = readVarint();
+        for (int i = 0, symbol = -1, start = 0; i < used; i++) {
+            symbol += readVarint() + 1;
+            int freq = readVarint() + 1;
+            if (symbol >= limit || start + freq > slots.length)
+                throw new IllegalStateException("Invalid rANS table");
+            freqs[symbol] = freq;
+            starts[symbol] = start;
+            for (int slot = start; slot < start + freq; slot++)
+                slots[slot] = symbol;
+            start += freq;
+        }
+        symbolLimits[context] = limit;
+        scales[context] = scale;
+        this.freqs[context] = freqs;
+        this.starts[context] = starts;
+        slotSymbols[context] = slots;
+    }
+
+
+    private int readVarint() throws IOException {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+    }
+
+
+    // Returns the next byte from the input stream. The end
+    // of stream is treated as an infinite number of trailing zeros.
+    private int readByte() throws IOException {
+        int temp = input.read();
+        if (temp == -1)
+            temp = 0;
+        return temp;
+    }
+
+}
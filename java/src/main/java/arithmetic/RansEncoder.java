@@ -0,0 +1,222 @@
+package arithmetic;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+
+/**
+ * Encodes symbols with interleaved rANS (range asymmetric numeral systems) and semi-adaptive frequencies.
+ * Each frequency table passed to {@link #write(FrequencyTable, int)} only names a context: its current
+ * frequencies are ignored, and the symbols are counted per table instead. Nothing is written until
+ * {@link #finish()}, which writes one static table per context, normalized to a power of 2, followed by
+ * the symbols coded in reverse over {@link #WAYS} interleaved states. The decoder tells the contexts apart
+ * by the order in which their tables are first used, so it must be given tables in the same order.
+ * Not thread-safe.
+ *
+ * @see RansDecoder
+ */
+public final class RansEncoder implements SymbolEncoder {
+
+    /*---- Constants ----*/
+
+    // Number of interleaved states; symbol i goes through state i % WAYS.
+    static final int WAYS = 4;
+
+    // Lower bound of the normalized state, which stays in [LOWER, LOWER << 8).
+    static final long LOWER = 1L << 23;
+
+    // Largest scale of a table, i.e. its frequencies add up to at most 2^MAXIMUM_SCALE.
+    static final int MAXIMUM_SCALE = 15;
+
+
+
+    /*---- Fields ----*/
+
+    // The underlying byte output stream (not null).
+    private final OutputStream output;
+
+    // The contexts in the order of first use, and their symbol counts.
+    private final Map<FrequencyTable, Integer> contexts = new IdentityHashMap<>();
+    private int[][] counts = new int[16][];
+
+    // The symbols written so far, each as (context << 32 | symbol).
+    private long[] symbols = new long[1024];
+    private int length;
+
+
+
+    /*---- Constructor ----*/
+
+    /**
+     * Constructs an rANS encoder that writes to the specified byte output stream when finished.
+     *
+     * @param out the byte output stream to write to
+     * @throws NullPointerException if the output stream is {@code null}
+     */
+    public RansEncoder(OutputStream out) {
+        output = Objects.requireNonNull(out);
+    }
+
+
+
+    /*---- Methods ----*/
+
+    /**
+     * Queues the specified symbol in the context of the specified frequency table.
+     *
+     * @param freqs  the frequency table naming the context
+     * @param symbol the symbol to encode
+     * @throws NullPointerException     if the frequency table is {@code null}
+     * @throws IllegalArgumentException if {@code symbol} &lt; 0 or {@code symbol} &ge; {@code freqs.getSymbolLimit()}
+     */
+    public void write(FrequencyTable freqs, int symbol) {
+        Integer context = contexts.get(freqs);
+        if (context == null) {
+            context = contexts.size();
+            contexts.put(freqs, context);
+            if (context == counts.length)
+                counts = Arrays.copyOf(counts, counts.length * 2);
+            counts[context] = new int[freqs.getSymbolLimit()];
+        }
+        if (symbol < 0 || symbol >= counts[context].length)
+            throw new IllegalArgumentException("Symbol out of range");
+        counts[context][symbol]++;
+        if (length == symbols.length)
+            symbols = Arrays.copyOf(symbols, symbols.length * 2);
+        symbols[length++] = (long) context << 32 | symbol;
+    }
+
+
+    /**
+     * Writes the tables and the coded symbols.
+     * <p>Note that this method merely writes data to the underlying output stream but does not close it.</p>
+     *
+     * @throws IOException if an I/O exception occurred
+     */
+    public void finish() throws IOException {
+        int numContexts = contexts.size();
+        int[] scales = new int[numContexts];
+        int[][] freqs = new int[numContexts][];
+        int[][] starts = new int[numContexts][];
+        writeVarint(numContexts);
+        for (int c = 0; c < numContexts; c++) {
+            scales[c] = scale(counts[c]);
+            freqs[c] = normalize(counts[c], scales[c]);
+            starts[c] = new int[freqs[c].length];
+            for (int s = 0, start = 0; s < freqs[c].length; s++) {
+                starts[c][s] = start;
+                start += freqs[c][s];
+            }
+            writeTable(freqs[c], scales[c]);
+        }
+
+        // rANS pops symbols in the reverse order they were pushed, so code backwards into a buffer filled from its end
+        byte[] buffer = new byte[length * 4 + WAYS * 4 + 16];
+        int position = buffer.length;
+        long[] states = new long[WAYS];
+        Arrays.fill(states, LOWER);
+        for (int i = length - 1; i >= 0; i--) {
+            int context = (int) (symbols[i] >>> 32);
+            int symbol = (int) symbols[i];
+            int freq = freqs[context][symbol];
+            int scale = scales[context];
+            long state = states[i % WAYS];
+            long maximum = ((LOWER >>> scale) << 8) * freq;
+            while (state >= maximum) {
+                if (position == 0) {
+                    byte[] grown = new byte[buffer.length * 2];
+                    System.arraycopy(buffer, 0, grown, buffer.length, buffer.length);
+                    position = buffer.length;
+                    buffer = grown;
+                }
+                buffer[--position] = (byte) state;
+                state >>>= 8;
+            }
+            states[i % WAYS] = ((state / freq) << scale) + (state % freq) + starts[context][symbol];
+        }
+        for (int w = 0; w < WAYS; w++)
+            for (int shift = 24; shift >= 0; shift -= 8)
+                output.write((int) (states[w] >>> shift) & 0xFF);
+        output.write(buffer, position, buffer.length - position);
+    }
+
+
+    // The smallest scale that holds every count unscaled, capped at MAXIMUM_SCALE.
+    private static int scale(int[] counts) {
+        long total = 0;
+        for (int count : counts)
+            total += count;
+        int scale = 64 - Long.numberOfLeadingZeros(Math.max(total - 1, 1));
+        return Math.min(scale, MAXIMUM_SCALE);
+    }
+
+
+    // Scales the counts to add up to exactly 2^scale, keeping every counted symbol at 1 or more.
+    static int[] normalize(int[] counts, int scale) {
+        long total = 0;
+        int used = 0;
+        for (int count : counts) {
+            total += count;
+            if (count > 0)
+                used++;
+        }
+        if (used > 1 << scale)
+            throw new IllegalArgumentException("Too many distinct symbols for one table");
+        int target = 1 << scale;
+        int[] freqs = new int[counts.length];
+        int sum = 0;
+        for (int s = 0; s < counts.length; s++) {
+            if (counts[s] > 0) {
+                freqs[s] = (int) Math.max(1, Math.round((double) counts[s] * target / total));
+                sum += freqs[s];
+            }
+        }
+        // Settle the rounding error on the largest frequencies, where it costs the least
+        while (sum != target) {
+            int largest = 0;
+            for (int s = 1; s < freqs.length; s++)
+                if (freqs[s] > freqs[largest])
+                    largest = s;
+            int change = sum < target ? target - sum : -Math.min(sum - target, freqs[largest] - 1);
+            freqs[largest] += change;
+            sum += change;
+            if (change == 0)
+                throw new AssertionError();
+        }
+        return freqs;
+    }
+
+
+    // Writes the symbol limit, the scale and the non-zero frequencies, each after the gap from the previous one.
+    private void writeTable(int[] freqs, int scale) throws IOException {
+        writeVarint(freqs.length);
+        writeVarint(scale);
+        int used = 0;
+        for (int freq : freqs)
+            if (freq > 0)
+                used++;
+        writeVarint(used);
+        for (int s = 0, previous = -1; s < freqs.length; s++) {
+            if (freqs[s] > 0) {
+                writeVarint(s - previous - 1);
+                writeVarint(freqs[s] - 1);
+                previous = s;
+            }
+        }
+    }
+
+
+    // Writes 7 bits per byte, least significant group first, with the top bit set on all but the last byte.
+    private void writeVarint(int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            output.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.write(value);
+    }
+
+}
@@ -0,0 +1,24 @@
+package arithmetic;
+
+import java.io.IOException;
+
+
+/**
+ * Decodes symbols written by the matching {@link SymbolEncoder}, given the same sequence of frequency tables.
+ *
+ * @see SymbolEncoder
+ */
+public interface SymbolDecoder {
+
+    /**
+     * Decodes the next symbol based on the specified frequency table and returns it.
+     *
+     * @param freqs the frequency table to use
+     * @return the next symbol
+     * @throws NullPointerException     if the frequency table is {@code null}
+     * @throws IllegalArgumentException if the frequency table's total is too large
+     * @throws IOException              if an I/O exception occurred
+     */
+    public int read(FrequencyTable freqs) throws IOException;
+
+}
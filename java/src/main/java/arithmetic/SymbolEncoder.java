@@ -0,0 +1,35 @@
+package arithmetic;
+
+import java.io.IOException;
+
+
+/**
+ * Encodes symbols according to frequency tables that the caller may change between symbols.
+ * Implemented by the bit-oriented {@link ArithmeticEncoder} and the byte-oriented {@link RangeEncoder}.
+ *
+ * @see SymbolDecoder
+ */
+public interface SymbolEncoder {
+
+    /**
+     * Encodes the specified symbol based on the specified frequency table.
+     *
+     * @param freqs  the frequency table to use
+     * @param symbol the symbol to encode
+     * @throws NullPointerException     if the frequency table is {@code null}
+     * @throws IllegalArgumentException if the symbol has zero frequency
+     *                                  or the frequency table's total is too large
+     * @throws IOException              if an I/O exception occurred
+     */
+    public void write(FrequencyTable freqs, int symbol) throws IOException;
+
+
+    /**
+     * Terminates the coding by flushing any buffered state, so that the output can be decoded properly.
+     * This does not close the underlying output stream.
+     *
+     * @throws IOException if an I/O exception occurred
+     */
+    public void finish() throws IOException;
+
+}
@@ -0,0 +1,176 @@
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PiedPiperTest {
+    private static final double cucvZero = 1 / Math.sqrt(2);
+
+    /*
+     * The .jpp files under flat/ were written by the predictor as it was before edges were cached or transformed
+     * any other way, from lenna.jpg and thumbnail.jpg (which has restart intervals) with every AC coefficient
+     * zeroed: flat blocks are predicted exactly half a quantization step off more often than anything else, so
+     * they are the first to decode differently when the prediction changes in the last bit.
+     */
+    @Test
+    public void decodesFlatBlocksOfExistingFiles() throws IOException {
+        for (String image : new String[]{"lenna", "thumbnail"}) {
+            byte[] jpg = resource("flat/" + image + ".jpg"), jpp = resource("flat/" + image + ".jpp");
+            for (int mode = 0; mode < 3; mode++) {
+                PiedPiperDecoder decoder = new PiedPiperDecoder(null, null);
+                decoder.setStreaming(mode == 1);
+                decoder.setParallel(mode == 2);
+                assertArrayEquals(image + " mode " + mode, jpg, transcode(decoder, jpp));
+            }
+        }
+    }
+
+    /*
+     * New files record the format version and the predictor, the floating-point one included, and decode back.
+     */
+    @Test
+    public void recordsEveryPredictor() throws IOException {
+        byte[] jpg = resource("flat/thumbnail.jpg");
+        for (int predictor : new int[]{PiedPiper.FLOATING, PiedPiper.FIXED}) {
+            PiedPiperEncoder encoder = new PiedPiperEncoder(null, null);
+            encoder.setPredictor(predictor);
+            byte[] jpp = transcode(encoder, jpg);
+            byte[] header = PiedPiper.header(predictor);
+            // right after SOI: APP15, its length, then the payload
+            assertEquals(0xffef, (jpp[2] & 0xff) << 8 | jpp[3] & 0xff);
+            assertArrayEquals(header, Arrays.copyOfRange(jpp, 6, 6 + header.length));
+            assertArrayEquals(jpg, transcode(new PiedPiperDecoder(null, null), jpp));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsOtherVersions() {
+        byte[] header = PiedPiper.header(PiedPiper.FLOATING);
+        header[header.length - 2]++;
+        PiedPiper.parseHeader(PiedPiper.MARKER, ByteBuffer.wrap(header));
+    }
+
+    private static byte[] resource(String name) throws IOException {
+        try (InputStream is = PiedPiperTest.class.getResourceAsStream("/" + name)) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int n; (n = is.read(buffer)) > 0; )
+                bytes.write(buffer, 0, n);
+            return bytes.toByteArray();
+        }
+    }
+
+    private static byte[] transcode(Jpeg jpeg, byte[] input) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        jpeg.recompress(ByteBuffer.wrap(input), output);
+        return output.toByteArray();
+    }
+
+    /*
+     * Predictions from the cached edges have to be what the predictor computed before there was a cache, bit for
+     * bit: flat blocks, whose predictions land on halves of a quantization step, decode differently otherwise.
+     */
+    @Test
+    public void cachedEdgesPredictLikeRecomputedOnes() {
+        Random random = new Random(338);
+        int w = 16, blocks = 8 * w;
+        int[] steps = {1, 5, 8, 13, 16};
+        for (boolean y : new boolean[]{true, false}) {
+            CoefficientPlane plane = CoefficientPlane.of(2 * blocks);
+            for (int trunk = 0; trunk < 2; trunk++) {
+                plane.startTrunk();
+                for (int b = 0; b < blocks; b++) {
+                    int offset = plane.next();
+                    int step = steps[random.nextInt(steps.length)];
+                    plane.coefficients[offset] = (random.nextInt(255) - 127) * step;
+                    if (b % 4 == 3)  // the odd block with some AC, the others flat
+                        for (int j = 1; j < 10; j++)
+                            plane.coefficients[offset + j] = random.nextInt(41) - 20;
+                    PiedPiper.keepEdges(plane.add(), plane);
+                }
+                for (int i = 0; i < blocks; i++) {
+                    double expected = baselinePrediction(i, plane, y, w);
+                    assertEquals(Double.doubleToLongBits(expected),
+                            Double.doubleToLongBits(PiedPiper.predict(i, plane, y, w)));
+                    for (int step : steps)
+                        assertEquals(Math.round(expected / step),
+                                PiedPiper.predict(PiedPiper.FLOATING, i, plane, y, w, step));
+                }
+            }
+        }
+    }
+
+    // PiedPiper.predict as .jpp files were first written with, every edge recomputed with Math.cos
+    private static double baselinePrediction(int i, CoefficientPlane plane, boolean y, int w) {
+        int[] coefficients = plane.coefficients;
+        int[][] block = ZigZag.zigzag2block(coefficients, plane.offset(i));
+        block[0][0] = 0;
+        double[] delta;
+        int left = PiedPiper.leftBlock(i, y, w), above = PiedPiper.aboveBlock(i, y, w);
+        if (above + plane.previousSize() >= 0) {
+            delta = idct1x8(block, 0);
+            minus(delta, 0, idct1x8(ZigZag.zigzag2block(coefficients, plane.offset(above)), 7));
+        } else if (left >= 0) {
+            delta = idct8x1(block, 0);
+            minus(delta, 0, idct8x1(ZigZag.zigzag2block(coefficients, plane.offset(left)), 7));
+            Arrays.sort(delta);
+            delta = Arrays.copyOfRange(delta, 3, delta.length - 3);
+            return Arrays.stream(delta).average().getAsDouble() * -8;
+        } else {
+            return 0;
+        }
+        if (left >= 0) {
+            delta = Arrays.copyOf(delta, 16);
+            System.arraycopy(idct8x1(block, 0), 0, delta, 8, 8);
+            minus(delta, 8, idct8x1(ZigZag.zigzag2block(coefficients, plane.offset(left)), 7));
+            Arrays.sort(delta);
+            delta = Arrays.copyOfRange(delta, 6, delta.length - 6);
+        } else {
+            Arrays.sort(delta);
+            delta = Arrays.copyOfRange(delta, 3, delta.length - 3);
+        }
+        return Arrays.stream(delta).average().getAsDouble() * -8;
+    }
+
+    private static void minus(double[] src, int srcPos, double[] dst) {
+        for (int i = 0; i < dst.length; i++)
+            src[srcPos + i] -= dst[i];
+    }
+
+    private static double[] idct8x1(int[][] input, int x) {
+        double[] output = new double[8];
+        for (int y = 0; y < 8; y++)
+            output[y] = idctKernel(input, x, y);
+        return output;
+    }
+
+    private static double[] idct1x8(int[][] input, int y) {
+        double[] output = new double[8];
+        for (int x = 0; x < 8; x++)
+            output[x] = idctKernel(input, x, y);
+        return output;
+    }
+
+    private static double idctKernel(int[][] input, int x, int y) {
+        double sum = 0;
+        for (int v = 0; v < 8; v++) {
+            double cv = (v == 0) ? cucvZero : 1;
+            for (int u = 0; u < 8; u++) {
+                double cu = (u == 0) ? cucvZero : 1;
+                sum += cu * cv * input[v][u] * kernel(x, y, u, v);
+            }
+        }
+        return sum / 4 + 128;
+    }
+
+    private static double kernel(int x, int y, int u, int v) {
+        return Math.cos(((2 * x + 1) * u * Math.PI) / 16) * Math.cos(((2 * y + 1) * v * Math.PI) / 16);
+    }
+}